@@ -1,10 +1,18 @@
 package com.openclassrooms.starterjwt.controllers;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -15,74 +23,152 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.payload.request.BulkSignupRequest;
 import com.openclassrooms.starterjwt.payload.request.LoginRequest;
 import com.openclassrooms.starterjwt.payload.request.SignupRequest;
 import com.openclassrooms.starterjwt.payload.response.JwtResponse;
 import com.openclassrooms.starterjwt.payload.response.MessageResponse;
+import com.openclassrooms.starterjwt.payload.response.RegistrationResult;
 import com.openclassrooms.starterjwt.repository.UserRepository;
 import com.openclassrooms.starterjwt.security.jwt.JwtUtils;
+import com.openclassrooms.starterjwt.security.password.PasswordEncoderSaturatedException;
+import com.openclassrooms.starterjwt.security.ratelimit.LoginRateLimiter;
+import com.openclassrooms.starterjwt.security.services.UserDetailsCache;
 import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
+import com.openclassrooms.starterjwt.services.UserService;
+
+import lombok.extern.log4j.Log4j2;
 
 @CrossOrigin(origins = "*", maxAge = 3600)
 @RestController
 @RequestMapping("/api/auth")
+@Log4j2
 public class AuthController {
+    private static final String EMAIL_TAKEN = "Error: Email is already taken!";
+
+    private static final String REGISTRATION_FAILED = "Error: Could not register user";
+
     private final AuthenticationManager authenticationManager;
     private final JwtUtils jwtUtils;
     private final PasswordEncoder passwordEncoder;
     private final UserRepository userRepository;
+    private final UserDetailsCache userDetailsCache;
+    private final UserService userService;
+    private final LoginRateLimiter loginRateLimiter;
 
     AuthController(AuthenticationManager authenticationManager,
             PasswordEncoder passwordEncoder,
             JwtUtils jwtUtils,
-            UserRepository userRepository) {
+            UserRepository userRepository,
+            UserDetailsCache userDetailsCache,
+            UserService userService,
+            LoginRateLimiter loginRateLimiter) {
         this.authenticationManager = authenticationManager;
         this.jwtUtils = jwtUtils;
         this.passwordEncoder = passwordEncoder;
         this.userRepository = userRepository;
+        this.userDetailsCache = userDetailsCache;
+        this.userService = userService;
+        this.loginRateLimiter = loginRateLimiter;
     }
 
     @PostMapping("/login")
-    public ResponseEntity<?> authenticateUser(@Valid @RequestBody LoginRequest loginRequest) {
+    public ResponseEntity<?> authenticateUser(@Valid @RequestBody LoginRequest loginRequest,
+            HttpServletRequest request) {
+        // Throttled attempts are turned away before any password hashing.
+        long retryAfterMs = loginRateLimiter.tryAcquire(request.getRemoteAddr(), loginRequest.getEmail());
+        if (retryAfterMs > 0) {
+            return ResponseEntity
+                    .status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf((retryAfterMs + 999) / 1000))
+                    .body(new MessageResponse("Error: Too many login attempts, please retry later!"));
+        }
 
-        Authentication authentication = authenticationManager.authenticate(
-                new UsernamePasswordAuthenticationToken(loginRequest.getEmail(), loginRequest.getPassword()));
+        Authentication authentication;
+        try {
+            authentication = authenticationManager.authenticate(
+                    new UsernamePasswordAuthenticationToken(loginRequest.getEmail(), loginRequest.getPassword()));
+        } catch (PasswordEncoderSaturatedException e) {
+            return serviceUnavailable();
+        }
 
         SecurityContextHolder.getContext().setAuthentication(authentication);
         String jwt = jwtUtils.generateJwtToken(authentication);
         UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
 
-        boolean isAdmin = false;
-        User user = this.userRepository.findByEmail(userDetails.getUsername()).orElse(null);
-        if (user != null) {
-            isAdmin = user.isAdmin();
-        }
-
         return ResponseEntity.ok(new JwtResponse(jwt,
                 userDetails.getId(),
                 userDetails.getUsername(),
                 userDetails.getFirstName(),
                 userDetails.getLastName(),
-                isAdmin));
+                Boolean.TRUE.equals(userDetails.getAdmin())));
     }
 
     @PostMapping("/register")
     public ResponseEntity<?> registerUser(@Valid @RequestBody SignupRequest signUpRequest) {
-        if (userRepository.existsByEmail(signUpRequest.getEmail())) {
-            return ResponseEntity
-                    .badRequest()
-                    .body(new MessageResponse("Error: Email is already taken!"));
+        String encodedPassword;
+        try {
+            encodedPassword = passwordEncoder.encode(signUpRequest.getPassword());
+        } catch (PasswordEncoderSaturatedException e) {
+            return serviceUnavailable();
         }
 
         // Create new user's account
         User user = new User(signUpRequest.getEmail(),
                 signUpRequest.getLastName(),
                 signUpRequest.getFirstName(),
-                passwordEncoder.encode(signUpRequest.getPassword()),
+                encodedPassword,
                 false);
 
-        userRepository.save(user);
+        // The unique constraint on USERS.email rejects duplicates, even concurrent ones.
+        try {
+            userRepository.save(user);
+        } catch (DataIntegrityViolationException e) {
+            if (UserService.isEmailTaken(e)) {
+                return ResponseEntity.badRequest().body(new MessageResponse(EMAIL_TAKEN));
+            }
+            // The driver's message names tables, columns and values, so it stays in the logs.
+            log.warn("Registration rejected by the database", e);
+            return ResponseEntity.badRequest().body(new MessageResponse(REGISTRATION_FAILED));
+        }
+        userDetailsCache.evict(user.getEmail());
 
         return ResponseEntity.ok(new MessageResponse("User registered successfully!"));
     }
+
+    @PostMapping("/register/bulk")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> registerUsers(@Valid @RequestBody BulkSignupRequest bulkSignupRequest) {
+        List<SignupRequest> signupRequests = bulkSignupRequest.getUsers();
+        List<User> users = new ArrayList<>(signupRequests.size());
+        try {
+            for (SignupRequest signupRequest : signupRequests) {
+                users.add(new User(signupRequest.getEmail(),
+                        signupRequest.getLastName(),
+                        signupRequest.getFirstName(),
+                        passwordEncoder.encode(signupRequest.getPassword()),
+                        false));
+            }
+        } catch (PasswordEncoderSaturatedException e) {
+            return serviceUnavailable();
+        }
+
+        List<Boolean> created = userService.createAll(users);
+
+        List<RegistrationResult> results = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            String email = users.get(i).getEmail();
+            results.add(created.get(i)
+                    ? new RegistrationResult(email, true, "User registered successfully!")
+                    : new RegistrationResult(email, false, EMAIL_TAKEN));
+        }
+        return ResponseEntity.ok(results);
+    }
+
+    private ResponseEntity<MessageResponse> serviceUnavailable() {
+        return ResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(new MessageResponse("Error: Server is busy, please retry later!"));
+    }
 }
@@ -1,62 +1,232 @@
 package com.openclassrooms.starterjwt.controllers;
 
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.openclassrooms.starterjwt.dto.SessionDto;
+import com.openclassrooms.starterjwt.exception.BadRequestException;
 import com.openclassrooms.starterjwt.mapper.SessionMapper;
 import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.payload.request.BulkParticipationRequest;
+import com.openclassrooms.starterjwt.payload.request.BulkSessionRequest;
+import com.openclassrooms.starterjwt.payload.response.MessageResponse;
+import com.openclassrooms.starterjwt.payload.response.ParticipationResult;
+import com.openclassrooms.starterjwt.services.SessionCache;
+import com.openclassrooms.starterjwt.services.SessionCache.PageKey;
+import com.openclassrooms.starterjwt.services.SessionCache.SessionPage;
+import com.openclassrooms.starterjwt.services.SessionImportService;
 import com.openclassrooms.starterjwt.services.SessionService;
+import com.openclassrooms.starterjwt.services.SessionService.Participation;
+import com.openclassrooms.starterjwt.services.SessionService.ParticipationOutcome;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
-@CrossOrigin(origins = "*", maxAge = 3600)
+@CrossOrigin(origins = "*", maxAge = 3600, exposedHeaders = SessionController.NEXT_CURSOR_HEADER)
 @RestController
 @RequestMapping("/api/session")
 @Log4j2
 public class SessionController {
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final int EXPORT_CHUNK_SIZE = 100;
+
     private final SessionMapper sessionMapper;
     private final SessionService sessionService;
+    private final SessionImportService sessionImportService;
+    private final SessionCache sessionCache;
+    private final ObjectMapper objectMapper;
+    private final int defaultPageSize;
+    private final int maxPageSize;
 
 
     public SessionController(SessionService sessionService,
-                             SessionMapper sessionMapper) {
+                             SessionImportService sessionImportService,
+                             SessionMapper sessionMapper,
+                             SessionCache sessionCache,
+                             ObjectMapper objectMapper,
+                             @Value("${oc.app.session.defaultPageSize:50}") int defaultPageSize,
+                             @Value("${oc.app.session.maxPageSize:100}") int maxPageSize) {
         this.sessionMapper = sessionMapper;
         this.sessionService = sessionService;
+        this.sessionImportService = sessionImportService;
+        this.sessionCache = sessionCache;
+        this.objectMapper = objectMapper;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<?> findById(@PathVariable("id") String id) {
+    public ResponseEntity<?> findById(@PathVariable("id") String id, WebRequest request) {
         try {
-            Session session = this.sessionService.getById(Long.valueOf(id));
+            Long sessionId = Long.valueOf(id);
 
-            if (session == null) {
+            // Read from the database, so that a write made through any instance changes the tag.
+            Long version = this.sessionService.findVersion(sessionId);
+            if (version == null) {
                 return ResponseEntity.notFound().build();
             }
+            if (request.checkNotModified(sessionTag(sessionId, version))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(sessionTag(sessionId, version)).build();
+            }
 
-            return ResponseEntity.ok().body(this.sessionMapper.toDto(session));
+            SessionDto sessionDto = this.sessionCache.get(sessionId, this.sessionService::getDtoById);
+            if (sessionDto != null && !version.equals(sessionDto.getVersion())) {
+                // Cached before a write made through another instance.
+                this.sessionCache.evict(sessionId);
+                sessionDto = this.sessionCache.get(sessionId, this.sessionService::getDtoById);
+            }
+
+            if (sessionDto == null) {
+                return ResponseEntity.notFound().build();
+            }
+
+            return ResponseEntity.ok().eTag(sessionTag(sessionId, sessionDto.getVersion())).body(sessionDto);
         } catch (NumberFormatException e) {
             return ResponseEntity.badRequest().build();
         }
     }
 
+    /**
+     * Lists the sessions ordered by date then id, one page at a time. When the
+     * page is full, the X-Next-Cursor response header holds the cursor of the
+     * next page.
+     */
     @GetMapping()
-    public ResponseEntity<?> findAll() {
-        List<Session> sessions = this.sessionService.findAll();
+    public ResponseEntity<?> findAll(
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "size", required = false) Integer size,
+            WebRequest request) {
+        try {
+            int pageSize = size != null ? Math.min(Math.max(size, 1), this.maxPageSize) : this.defaultPageSize;
 
-        return ResponseEntity.ok().body(this.sessionMapper.toDto(sessions));
+            Date afterDate = null;
+            Long afterId = null;
+            if (cursor != null) {
+                String[] position = cursor.split("_", 2);
+                if (position.length != 2) {
+                    return ResponseEntity.badRequest().build();
+                }
+                afterDate = new Date(Long.parseLong(position[0]));
+                afterId = Long.valueOf(position[1]);
+            }
+
+            PageKey key = new PageKey(from, to, afterDate, afterId, pageSize);
+
+            // Read from the stored versions of the page's sessions, so that a write made through any
+            // instance changes the tag.
+            String tag = this.sessionService.findPageTag(from, to, key.getAfterDate(), key.getAfterId(), pageSize);
+            if (request.checkNotModified(pageTag(tag))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(pageTag(tag)).build();
+            }
+
+            Supplier<SessionPage> loader = () -> {
+                List<SessionDto> sessions = this.sessionService.findPage(from, to, key.getAfterDate(), key.getAfterId(),
+                        pageSize);
+
+                String nextCursor = null;
+                if (sessions.size() == pageSize) {
+                    SessionDto last = sessions.get(sessions.size() - 1);
+                    nextCursor = last.getDate().getTime() + "_" + last.getId();
+                }
+                return new SessionPage(sessions, nextCursor);
+            };
+            SessionPage page = this.sessionCache.getPage(key, loader);
+            if (!tag.equals(SessionService.pageTag(page.getSessions()))) {
+                // Cached before a write made through another instance.
+                this.sessionCache.evictAll();
+                page = this.sessionCache.getPage(key, loader);
+            }
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .eTag(pageTag(SessionService.pageTag(page.getSessions())));
+            if (page.getNextCursor() != null) {
+                response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+            }
+            return response.body(page.getSessions());
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Writes every session between the given dates as a JSON array, each DTO
+     * being serialized as soon as its chunk is read, so that neither the
+     * sessions nor the response are ever held in memory as a whole.
+     */
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to) {
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartArray();
+                this.sessionService.forEachChunk(from, to, EXPORT_CHUNK_SIZE, sessions -> {
+                    try {
+                        for (SessionDto session : sessions) {
+                            generator.writeObject(session);
+                        }
+                        generator.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
     @PostMapping()
     public ResponseEntity<?> create(@Valid @RequestBody SessionDto sessionDto) {
         log.info(sessionDto);
 
-        Session session = this.sessionService.create(this.sessionMapper.toEntity(sessionDto));
+        try {
+            Session session = this.sessionService.create(this.sessionMapper.toEntity(sessionDto));
+
+            log.info(session);
+            return ResponseEntity.ok().body(this.sessionMapper.toDto(session));
+        } catch (BadRequestException e) {
+            return ResponseEntity.badRequest().body(new MessageResponse(e.getMessage()));
+        }
+    }
+
+    @PostMapping("bulk")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> createAll(@Valid @RequestBody BulkSessionRequest bulkSessionRequest) {
+        return ResponseEntity.ok(this.sessionImportService.createAll(bulkSessionRequest.getSessions()));
+    }
 
-        log.info(session);
-        return ResponseEntity.ok().body(this.sessionMapper.toDto(session));
+    /**
+     * Creates the sessions of a CSV timetable, read from the request body as it
+     * is received, see SessionImportService.importCsv.
+     */
+    @PostMapping(value = "import", consumes = "text/csv")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> importCsv(Reader reader) throws IOException {
+        return ResponseEntity.ok(this.sessionImportService.importCsv(reader));
     }
 
     @PutMapping("{id}")
@@ -67,6 +237,11 @@ public class SessionController {
             return ResponseEntity.ok().body(this.sessionMapper.toDto(session));
         } catch (NumberFormatException e) {
             return ResponseEntity.badRequest().build();
+        } catch (BadRequestException e) {
+            return ResponseEntity.badRequest().body(new MessageResponse(e.getMessage()));
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new MessageResponse("Error: Session has been modified in the meantime"));
         }
     }
 
@@ -94,7 +269,33 @@ public class SessionController {
             return ResponseEntity.ok().build();
         } catch (NumberFormatException e) {
             return ResponseEntity.badRequest().build();
+        } catch (ConcurrencyFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+
+    @PostMapping("participate/bulk")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> participateAll(@Valid @RequestBody BulkParticipationRequest bulkParticipationRequest) {
+        List<Participation> participations = bulkParticipationRequest.getParticipations().stream()
+                .map(request -> new Participation(request.getSessionId(), request.getUserId()))
+                .collect(Collectors.toList());
+
+        List<ParticipationOutcome> outcomes;
+        try {
+            outcomes = this.sessionService.participateAll(participations);
+        } catch (ConcurrencyFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
         }
+
+        List<ParticipationResult> results = new ArrayList<>(participations.size());
+        for (int i = 0; i < participations.size(); i++) {
+            Participation participation = participations.get(i);
+            ParticipationOutcome outcome = outcomes.get(i);
+            results.add(new ParticipationResult(participation.getSessionId(), participation.getUserId(),
+                    outcome == ParticipationOutcome.ENROLLED, toMessage(outcome)));
+        }
+        return ResponseEntity.ok(results);
     }
 
     @DeleteMapping("{id}/participate/{userId}")
@@ -105,6 +306,29 @@ public class SessionController {
             return ResponseEntity.ok().build();
         } catch (NumberFormatException e) {
             return ResponseEntity.badRequest().build();
+        } catch (ConcurrencyFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+
+    private static String sessionTag(Long sessionId, Long version) {
+        return "\"session-" + sessionId + "-" + version + "\"";
+    }
+
+    private static String pageTag(String tag) {
+        return "\"sessions-" + tag + "\"";
+    }
+
+    private static String toMessage(ParticipationOutcome outcome) {
+        switch (outcome) {
+            case ENROLLED:
+                return "User enrolled successfully!";
+            case UNKNOWN_SESSION:
+                return "Error: Unknown session";
+            case UNKNOWN_USER:
+                return "Error: Unknown user";
+            default:
+                return "Error: User already participates";
         }
     }
 }
@@ -2,10 +2,17 @@ package com.openclassrooms.starterjwt.controllers;
 
 import com.openclassrooms.starterjwt.mapper.TeacherMapper;
 import com.openclassrooms.starterjwt.models.Teacher;
+import com.openclassrooms.starterjwt.services.TeacherCatalogue;
 import com.openclassrooms.starterjwt.services.TeacherService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import java.util.List;
+import org.springframework.web.context.request.WebRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
 
 @CrossOrigin(origins = "*", maxAge = 3600)
 @RestController
@@ -13,16 +20,19 @@ import java.util.List;
 public class TeacherController {
     private final TeacherMapper teacherMapper;
     private final TeacherService teacherService;
+    private final TeacherCatalogue teacherCatalogue;
 
 
     public TeacherController(TeacherService teacherService,
-                             TeacherMapper teacherMapper) {
+                             TeacherMapper teacherMapper,
+                             TeacherCatalogue teacherCatalogue) {
         this.teacherMapper = teacherMapper;
         this.teacherService = teacherService;
+        this.teacherCatalogue = teacherCatalogue;
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<?> findById(@PathVariable("id") String id) {
+    public ResponseEntity<?> findById(@PathVariable("id") String id, WebRequest request) {
         try {
             Teacher teacher = this.teacherService.findById(Long.valueOf(id));
 
@@ -30,16 +40,50 @@ public class TeacherController {
                 return ResponseEntity.notFound().build();
             }
 
-            return ResponseEntity.ok().body(this.teacherMapper.toDto(teacher));
+            String eTag = "\"teacher-" + teacher.getId() + "-"
+                    + (teacher.getUpdatedAt() != null ? teacher.getUpdatedAt().toEpochSecond(ZoneOffset.UTC) : 0) + "\"";
+            if (request.checkNotModified(eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+            }
+
+            return ResponseEntity.ok().eTag(eTag).body(this.teacherMapper.toDto(teacher));
         } catch (NumberFormatException e) {
             return ResponseEntity.badRequest().build();
         }
     }
 
     @GetMapping()
-    public ResponseEntity<?> findAll() {
-        List<Teacher> teachers = this.teacherService.findAll();
+    public ResponseEntity<?> findAll(WebRequest request) {
+        // Served from memory: the catalogue holds the list already encoded.
+        TeacherCatalogue.Snapshot catalogue = this.teacherCatalogue.get();
+        boolean gzip = acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        // Tagged by content, as the catalogue version can stay the same across quick edits. The gzipped
+        // body is another representation, so it gets its own strong tag.
+        String eTag = "\"teachers-" + catalogue.getDigest() + (gzip ? "-gzip" : "") + "\"";
+        if (request.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(eTag)
+                .contentType(new MediaType(MediaType.APPLICATION_JSON, StandardCharsets.UTF_8))
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(catalogue.getGzippedJson());
+        }
+        return response.body(catalogue.getJson());
+    }
 
-        return ResponseEntity.ok().body(this.teacherMapper.toDto(teachers));
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.trim().split(";");
+            if (parameters[0].trim().equalsIgnoreCase("gzip")) {
+                return parameters.length == 1 || !parameters[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
     }
 }
@@ -1,14 +1,20 @@
 package com.openclassrooms.starterjwt.controllers;
 
+import com.openclassrooms.starterjwt.exception.NotFoundException;
 import com.openclassrooms.starterjwt.mapper.UserMapper;
 import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.models.UserDeletion;
+import com.openclassrooms.starterjwt.payload.response.UserDeletionResponse;
+import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
 import com.openclassrooms.starterjwt.services.UserService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.URI;
 import java.util.Objects;
 
 @CrossOrigin(origins = "*", maxAge = 3600)
@@ -52,13 +58,49 @@ public class UserController {
             UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
 
             if(!Objects.equals(userDetails.getUsername(), user.getEmail())) {
-                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
             }
 
-            this.userService.delete(Long.parseLong(id));
-            return ResponseEntity.ok().build();
+            UserDeletion deletion = this.userService.delete(Long.parseLong(id));
+            return ResponseEntity.accepted().location(URI.create("/api/user/deletion/" + deletion.getId()))
+                    .body(UserDeletionResponse.of(deletion));
         } catch (NumberFormatException e) {
             return ResponseEntity.badRequest().build();
+        } catch (NotFoundException e) {
+            // Deleted in the meantime.
+            return ResponseEntity.notFound().build();
         }
     }
+
+    /**
+     * Reports the progress of the purge of a deleted user, to that user or to
+     * an admin.
+     */
+    @GetMapping("/deletion/{jobId}")
+    public ResponseEntity<?> findDeletion(@PathVariable("jobId") String jobId) {
+        try {
+            UserDeletion deletion = this.userService.findDeletion(Long.valueOf(jobId));
+
+            if (deletion == null) {
+                return ResponseEntity.notFound().build();
+            }
+
+            if (!isSelfOrAdmin(deletion.getUserId())) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            }
+
+            return ResponseEntity.ok().body(UserDeletionResponse.of(deletion));
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    private static boolean isSelfOrAdmin(Long userId) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !(authentication.getPrincipal() instanceof UserDetailsImpl)) {
+            return false;
+        }
+        UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
+        return Objects.equals(userDetails.getId(), userId) || Boolean.TRUE.equals(userDetails.getAdmin());
+    }
 }
@@ -0,0 +1,63 @@
+package com.openclassrooms.starterjwt.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Replaces the single datasource with a primary pool, configured by the
+ * spring.datasource properties, and a replica pool, once
+ * oc.app.datasource.replica.url is set. The pools are tuned like the default
+ * one, by spring.datasource.hikari.* and oc.app.datasource.replica.hikari.*
+ * respectively. Relies on spring.jpa.open-in-view being
+ * off: a request-wide EntityManager would hold the connection of its first
+ * transaction, replica included, for every later one.
+ */
+@Configuration
+@ConditionalOnProperty(name = "oc.app.datasource.replica.url")
+public class ReadWriteDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("oc.app.datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(
+            @Value("${oc.app.datasource.replica.url}") String url,
+            @Value("${oc.app.datasource.replica.username:${spring.datasource.username}}") String username,
+            @Value("${oc.app.datasource.replica.password:${spring.datasource.password}}") String password) {
+        HikariDataSource dataSource = DataSourceBuilder.create().type(HikariDataSource.class)
+                .url(url).username(username).password(password).build();
+        dataSource.setPoolName("replica");
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primary,
+                                 @Qualifier("replicaDataSource") DataSource replica,
+                                 @Value("${oc.app.datasource.stickyWindowMs:5000}") long stickyWindowMs,
+                                 MeterRegistry meterRegistry) {
+        ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primary, replica, stickyWindowMs,
+                meterRegistry);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+}
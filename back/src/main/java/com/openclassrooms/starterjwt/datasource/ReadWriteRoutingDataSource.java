@@ -0,0 +1,130 @@
+package com.openclassrooms.starterjwt.datasource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Sends the work of read-only transactions to the replica and everything else
+ * to the primary. A user whose write has been committed less than the sticky
+ * window ago keeps reading from the primary, so that they see their own writes
+ * despite the replication lag.
+ *
+ * <p>The route is chosen when a connection is fetched, so this must be wrapped
+ * in a LazyConnectionDataSourceProxy for the transaction to be flagged
+ * read-only by then.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+    public enum Route {
+        PRIMARY,
+        REPLICA
+    }
+
+    private static final ThreadLocal<Integer> PRIMARY_PINS = new ThreadLocal<>();
+
+    private final Cache<String, Boolean> recentWriters;
+
+    private final Counter writes;
+
+    private final Counter reads;
+
+    private final Counter stickyReads;
+
+    private final Counter pinnedReads;
+
+    public ReadWriteRoutingDataSource(DataSource primary,
+                                      DataSource replica,
+                                      long stickyWindowMs,
+                                      MeterRegistry meterRegistry) {
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(Route.PRIMARY, primary);
+        targets.put(Route.REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+
+        this.recentWriters = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(stickyWindowMs, TimeUnit.MILLISECONDS)
+                .build();
+        this.writes = counter(meterRegistry, Route.PRIMARY, "write");
+        this.stickyReads = counter(meterRegistry, Route.PRIMARY, "sticky");
+        this.pinnedReads = counter(meterRegistry, Route.PRIMARY, "pinned");
+        this.reads = counter(meterRegistry, Route.REPLICA, "read");
+    }
+
+    /**
+     * Runs the work with its read-only transactions routed to the primary, e.g.
+     * to fill a cache that is only evicted on writes, which must not be filled
+     * from a lagging replica.
+     */
+    public static <T> T onPrimary(Supplier<T> work) {
+        Integer pins = PRIMARY_PINS.get();
+        PRIMARY_PINS.set(pins == null ? 1 : pins + 1);
+        try {
+            return work.get();
+        } finally {
+            if (pins == null) {
+                PRIMARY_PINS.remove();
+            } else {
+                PRIMARY_PINS.set(pins);
+            }
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String user = currentUser();
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (user != null && TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        recentWriters.put(user, Boolean.TRUE);
+                    }
+                });
+            }
+            this.writes.increment();
+            return Route.PRIMARY;
+        }
+
+        if (PRIMARY_PINS.get() != null) {
+            this.pinnedReads.increment();
+            return Route.PRIMARY;
+        }
+        if (user != null && this.recentWriters.getIfPresent(user) != null) {
+            this.stickyReads.increment();
+            return Route.PRIMARY;
+        }
+        this.reads.increment();
+        return Route.REPLICA;
+    }
+
+    private static String currentUser() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()
+                || authentication instanceof AnonymousAuthenticationToken) {
+            return null;
+        }
+        return authentication.getName();
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, Route route, String reason) {
+        return Counter.builder("datasource.route")
+                .tag("route", route.name().toLowerCase())
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
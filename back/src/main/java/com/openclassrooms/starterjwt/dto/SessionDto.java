@@ -33,6 +33,8 @@ public class SessionDto {
 
     private List<Long> users;
 
+    private Long version;
+
     private LocalDateTime createdAt;
 
     private LocalDateTime updatedAt;
@@ -1,18 +1,22 @@
 package com.openclassrooms.starterjwt.mapper;
 
 import com.openclassrooms.starterjwt.dto.SessionDto;
+import com.openclassrooms.starterjwt.exception.BadRequestException;
 import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.models.Teacher;
 import com.openclassrooms.starterjwt.models.User;
 import com.openclassrooms.starterjwt.services.TeacherService;
 import com.openclassrooms.starterjwt.services.UserService;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
 import org.mapstruct.Mappings;
+import org.mapstruct.Named;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -27,11 +31,26 @@ public abstract class SessionMapper implements EntityMapper<SessionDto, Session>
 
     @Mappings({
             @Mapping(source = "description", target = "description"),
-            @Mapping(target = "teacher", expression = "java(sessionDto.getTeacher_id() != null ? this.teacherService.findById(sessionDto.getTeacher_id()) : null)"),
-            @Mapping(target = "users", expression = "java(Optional.ofNullable(sessionDto.getUsers()).orElseGet(Collections::emptyList).stream().map(user_id -> { User user = this.userService.findById(user_id); if (user != null) { return user; } return null; }).collect(Collectors.toList()))"),
+            @Mapping(target = "teacher", expression = "java(this.findTeacher(sessionDto.getTeacher_id()))"),
+            @Mapping(target = "users", expression = "java(this.userService.findAllById(sessionDto.getUsers()))"),
     })
     public abstract Session toEntity(SessionDto sessionDto);
 
+    /**
+     * @throws BadRequestException if the teacher doesn't exist.
+     */
+    protected Teacher findTeacher(Long teacherId) {
+        if (teacherId == null) {
+            return null;
+        }
+
+        Teacher teacher = this.teacherService.findById(teacherId);
+        if (teacher == null) {
+            throw new BadRequestException("Error: Unknown teacher id " + teacherId);
+        }
+        return teacher;
+    }
+
 
     @Mappings({
             @Mapping(source = "description", target = "description"),
@@ -39,4 +58,22 @@ public abstract class SessionMapper implements EntityMapper<SessionDto, Session>
             @Mapping(target = "users", expression = "java(Optional.ofNullable(session.getUsers()).orElseGet(Collections::emptyList).stream().map(u -> u.getId()).collect(Collectors.toList()))"),
     })
     public abstract SessionDto toDto(Session session);
+
+    /**
+     * Maps the session with the given participants instead of its users, which
+     * are left unloaded.
+     */
+    public SessionDto toDto(Session session, List<Long> userIds) {
+        SessionDto sessionDto = toDtoWithoutUsers(session);
+        sessionDto.setUsers(userIds);
+        return sessionDto;
+    }
+
+    @Named("withoutUsers")
+    @Mappings({
+            @Mapping(source = "description", target = "description"),
+            @Mapping(source = "session.teacher.id", target = "teacher_id"),
+            @Mapping(target = "users", ignore = true),
+    })
+    protected abstract SessionDto toDtoWithoutUsers(Session session);
 }
@@ -3,6 +3,9 @@ package com.openclassrooms.starterjwt.models;
 
 import lombok.*;
 import lombok.experimental.Accessors;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.hibernate.annotations.UpdateTimestamp;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
@@ -26,8 +29,16 @@ import java.util.List;
 @AllArgsConstructor
 @ToString
 public class Session {
+    // Ids are reserved 100 at a time instead of being assigned by the insert,
+    // so that Hibernate can batch the inserts.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "session_id")
+    @GenericGenerator(name = "session_id", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator",
+            parameters = {
+                    @Parameter(name = "sequence_name", value = "SESSIONS_SEQ"),
+                    @Parameter(name = "increment_size", value = "100"),
+                    @Parameter(name = "optimizer", value = "pooled-lo")
+            })
     private Long id;
 
     @NotBlank
@@ -45,13 +56,23 @@ public class Session {
     @JoinColumn(name = "teacher_id", referencedColumnName = "id")
     private Teacher teacher;
 
-    @ManyToMany(fetch = FetchType.EAGER)
+    // Only loaded by writes, reads take the participants' ids from PARTICIPATE
+    // without loading any user, see SessionService.
+    @ManyToMany(fetch = FetchType.LAZY)
+    @BatchSize(size = 100)
     @JoinTable(
             name = "PARTICIPATE",
             joinColumns = @JoinColumn( name = "session_id" ),
-            inverseJoinColumns = @JoinColumn( name = "user_id" ) )
+            inverseJoinColumns = @JoinColumn( name = "user_id" ),
+            uniqueConstraints = @UniqueConstraint(columnNames = {"session_id", "user_id"}) )
+    @ToString.Exclude
     private List<User> users;
 
+    // Checked by every update and bumped by every participation change, so that
+    // an update built from a stale read can't overwrite a concurrent change.
+    @Version
+    private Long version;
+
     @CreatedDate
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
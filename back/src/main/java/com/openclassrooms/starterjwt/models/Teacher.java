@@ -1,7 +1,10 @@
 package com.openclassrooms.starterjwt.models;
 
+import com.openclassrooms.starterjwt.services.TeacherCatalogue;
 import lombok.*;
 import lombok.experimental.Accessors;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.UpdateTimestamp;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
@@ -13,7 +16,9 @@ import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "TEACHERS")
-@EntityListeners(AuditingEntityListener.class)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "teachers")
+@EntityListeners({AuditingEntityListener.class, TeacherCatalogue.TeacherListener.class})
 @Data
 @Accessors(chain = true)
 @EqualsAndHashCode(of = {"id"})
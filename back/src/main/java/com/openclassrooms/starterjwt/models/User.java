@@ -3,6 +3,7 @@ package com.openclassrooms.starterjwt.models;
 import lombok.*;
 import lombok.experimental.Accessors;
 import org.hibernate.annotations.UpdateTimestamp;
+import org.hibernate.annotations.Where;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
@@ -13,7 +14,7 @@ import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "USERS", uniqueConstraints = {
-    @UniqueConstraint(columnNames = "email")
+    @UniqueConstraint(name = "UK_USERS_EMAIL", columnNames = "email")
 })
 @Data
 @Accessors(chain = true)
@@ -24,6 +25,7 @@ import java.time.LocalDateTime;
 @RequiredArgsConstructor
 @AllArgsConstructor
 @ToString
+@Where(clause = "deleted_at IS NULL")
 public class User {
   @Id
   @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -59,4 +61,10 @@ public class User {
   @Column(name = "updated_at")
   private LocalDateTime updatedAt;
 
+  /**
+   * Set when the user asks to be deleted; the row is purged in the background.
+   */
+  @Column(name = "deleted_at")
+  private LocalDateTime deletedAt;
+
 }
@@ -0,0 +1,27 @@
+package com.openclassrooms.starterjwt.payload.request;
+
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+import lombok.Data;
+
+@Data
+public class BulkParticipationRequest {
+  @NotEmpty
+  @Size(max = 1000)
+  @Valid
+  private List<Participation> participations;
+
+  @Data
+  public static class Participation {
+    @NotNull
+    private Long sessionId;
+
+    @NotNull
+    private Long userId;
+  }
+}
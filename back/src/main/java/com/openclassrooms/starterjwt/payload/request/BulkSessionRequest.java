@@ -0,0 +1,19 @@
+package com.openclassrooms.starterjwt.payload.request;
+
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+
+import com.openclassrooms.starterjwt.dto.SessionDto;
+
+import lombok.Data;
+
+@Data
+public class BulkSessionRequest {
+  @NotEmpty
+  @Size(max = 1000)
+  @Valid
+  private List<SessionDto> sessions;
+}
@@ -0,0 +1,17 @@
+package com.openclassrooms.starterjwt.payload.request;
+
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+
+import lombok.Data;
+
+@Data
+public class BulkSignupRequest {
+  @NotEmpty
+  @Size(max = 500)
+  @Valid
+  private List<SignupRequest> users;
+}
@@ -0,0 +1,16 @@
+package com.openclassrooms.starterjwt.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class ParticipationResult {
+  private Long sessionId;
+
+  private Long userId;
+
+  private boolean enrolled;
+
+  private String message;
+}
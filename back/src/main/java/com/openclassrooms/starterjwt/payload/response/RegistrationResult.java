@@ -0,0 +1,14 @@
+package com.openclassrooms.starterjwt.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class RegistrationResult {
+  private String email;
+
+  private boolean registered;
+
+  private String message;
+}
@@ -0,0 +1,23 @@
+package com.openclassrooms.starterjwt.payload.response;
+
+import com.openclassrooms.starterjwt.models.UserDeletion;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class UserDeletionResponse {
+  private Long jobId;
+
+  private Long userId;
+
+  private UserDeletion.Status status;
+
+  private long purgedParticipations;
+
+  public static UserDeletionResponse of(UserDeletion deletion) {
+    return new UserDeletionResponse(deletion.getId(), deletion.getUserId(), deletion.getStatus(),
+        deletion.getPurgedParticipations());
+  }
+}
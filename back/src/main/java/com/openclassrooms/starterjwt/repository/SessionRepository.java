@@ -1,9 +1,98 @@
 package com.openclassrooms.starterjwt.repository;
 
 import com.openclassrooms.starterjwt.models.Session;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
 
 @Repository
 public interface SessionRepository  extends JpaRepository<Session, Long> {
+    @Override
+    @EntityGraph(attributePaths = {"teacher"})
+    Optional<Session> findById(Long id);
+
+    /**
+     * Keyset page of the sessions ordered by date then id: the sessions strictly
+     * after the (afterDate, afterId) position and before the given date. Only the
+     * pageable size is used, no count query is issued. Teachers are fetched in
+     * the same query.
+     */
+    @Query("SELECT s FROM Session s LEFT JOIN FETCH s.teacher WHERE s.date < :to"
+            + " AND (s.date > :afterDate OR (s.date = :afterDate AND s.id > :afterId))"
+            + " ORDER BY s.date ASC, s.id ASC")
+    List<Session> findPageAfter(@Param("afterDate") Date afterDate,
+                                @Param("afterId") Long afterId,
+                                @Param("to") Date to,
+                                Pageable pageable);
+
+    /**
+     * Same keyset page as findPageAfter, reading only the (id, version) of the
+     * sessions, ordered by date then id.
+     */
+    @Query("SELECT s.id, s.version FROM Session s WHERE s.date < :to"
+            + " AND (s.date > :afterDate OR (s.date = :afterDate AND s.id > :afterId))"
+            + " ORDER BY s.date ASC, s.id ASC")
+    List<Object[]> findPageVersionsAfter(@Param("afterDate") Date afterDate,
+                                         @Param("afterId") Long afterId,
+                                         @Param("to") Date to,
+                                         Pageable pageable);
+
+    /**
+     * Streams the sessions between the given dates ordered by date then id,
+     * fetching rows from the database a chunk at a time. Must be consumed, and
+     * closed, within a transaction.
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "100"))
+    @Query("SELECT s FROM Session s LEFT JOIN FETCH s.teacher WHERE s.date >= :from AND s.date < :to"
+            + " ORDER BY s.date ASC, s.id ASC")
+    Stream<Session> streamByDateRange(@Param("from") Date from, @Param("to") Date to);
+
+    /**
+     * Bumps the version of the session, e.g. after a participation change made
+     * without loading it.
+     *
+     * @return the number of updated sessions, 0 or 1.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Session s SET s.version = s.version + 1 WHERE s.id = :id")
+    int incrementVersion(@Param("id") Long id);
+
+    @Query("SELECT s.version FROM Session s WHERE s.id = :id")
+    Optional<Long> findVersionById(@Param("id") Long id);
+
+    @Query("SELECT s.id FROM Session s WHERE s.id IN :ids")
+    Set<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Lists the (session_id, user_id) rows of PARTICIPATE of the given sessions,
+     * ordered by session then user, in a single query that reads no user row.
+     */
+    @Query(value = "SELECT session_id, user_id FROM PARTICIPATE WHERE session_id IN :sessionIds"
+            + " ORDER BY session_id, user_id", nativeQuery = true)
+    List<Object[]> findParticipants(@Param("sessionIds") Collection<Long> sessionIds);
+
+    /**
+     * Lists the (session_id, user_id) rows of PARTICIPATE among the given
+     * sessions and users, in a single query.
+     */
+    @Query(value = "SELECT session_id, user_id FROM PARTICIPATE WHERE session_id IN :sessionIds AND user_id IN :userIds",
+            nativeQuery = true)
+    List<Object[]> findParticipations(@Param("sessionIds") Collection<Long> sessionIds,
+                                      @Param("userIds") Collection<Long> userIds);
 }
@@ -2,8 +2,44 @@ package com.openclassrooms.starterjwt.repository;
 
 import com.openclassrooms.starterjwt.models.Teacher;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import static org.hibernate.annotations.QueryHints.CACHEABLE;
+
 @Repository
 public interface TeacherRepository  extends JpaRepository<Teacher, Long> {
+    /**
+     * Kept in the query cache until the next write to the table.
+     */
+    @Override
+    @QueryHints(@QueryHint(name = CACHEABLE, value = "true"))
+    List<Teacher> findAll();
+
+    /**
+     * Summary of the teacher table that changes whenever a teacher is added,
+     * removed or updated, computed without reading the rows out nor going
+     * through the caches.
+     */
+    @Query("SELECT COUNT(t) AS count, SUM(t.id) AS idSum, MAX(t.updatedAt) AS lastUpdate FROM Teacher t")
+    CatalogueVersion findCatalogueVersion();
+
+    @Query("SELECT t.id FROM Teacher t WHERE t.id IN :ids")
+    Set<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    interface CatalogueVersion {
+        long getCount();
+
+        Long getIdSum();
+
+        LocalDateTime getLastUpdate();
+    }
 }
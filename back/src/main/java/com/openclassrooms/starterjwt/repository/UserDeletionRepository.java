@@ -0,0 +1,20 @@
+package com.openclassrooms.starterjwt.repository;
+
+import com.openclassrooms.starterjwt.models.UserDeletion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface UserDeletionRepository extends JpaRepository<UserDeletion, Long> {
+    List<UserDeletion> findTop100ByStatusAndIdGreaterThanOrderByIdAsc(UserDeletion.Status status, Long id);
+
+    @Query("SELECT d.userId FROM UserDeletion d WHERE d.createdAt > :since")
+    List<Long> findUserIdsDeletedSince(@Param("since") LocalDateTime since);
+
+    boolean existsByUserId(Long userId);
+}
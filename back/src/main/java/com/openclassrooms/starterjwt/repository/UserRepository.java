@@ -1,9 +1,16 @@
 package com.openclassrooms.starterjwt.repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.Set;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.openclassrooms.starterjwt.models.User;
 
@@ -11,5 +18,23 @@ import com.openclassrooms.starterjwt.models.User;
 public interface UserRepository extends JpaRepository<User, Long> {
   Optional<User> findByEmail(String email);
 
-  Boolean existsByEmail(String email); 
+  @Query("SELECT u.email FROM User u WHERE u.email IN :emails")
+  Set<String> findExistingEmails(@Param("emails") Collection<String> emails);
+
+  @Query("SELECT u.id FROM User u WHERE u.id IN :ids")
+  Set<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+  /**
+   * Hides the user from every query, pending its purge.
+   *
+   * @return 1 if the user has been marked, 0 if it doesn't exist or was already marked.
+   */
+  @Modifying
+  @Query("UPDATE User u SET u.deletedAt = :deletedAt WHERE u.id = :id AND u.deletedAt IS NULL")
+  int markDeleted(@Param("id") Long id, @Param("deletedAt") LocalDateTime deletedAt);
+
+  @Modifying
+  @Transactional
+  @Query("UPDATE User u SET u.password = :password WHERE u.email = :email")
+  int updatePasswordByEmail(@Param("email") String email, @Param("password") String password);
 }
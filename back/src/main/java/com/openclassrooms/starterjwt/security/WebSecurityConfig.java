@@ -1,6 +1,7 @@
 package com.openclassrooms.starterjwt.security;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -10,14 +11,17 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.config.http.SessionCreationPolicy;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
 import com.openclassrooms.starterjwt.security.jwt.AuthEntryPointJwt;
 import com.openclassrooms.starterjwt.security.jwt.AuthTokenFilter;
+import com.openclassrooms.starterjwt.security.password.AdaptiveBCryptPasswordEncoder;
+import com.openclassrooms.starterjwt.security.password.BoundedPasswordEncoder;
 import com.openclassrooms.starterjwt.security.services.UserDetailsServiceImpl;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 @Configuration
 @EnableWebSecurity
 @EnableGlobalMethodSecurity(
@@ -31,6 +35,27 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
   @Autowired
   private AuthEntryPointJwt unauthorizedHandler;
 
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${oc.app.passwordEncoder.threads:4}")
+  private int passwordEncoderThreads;
+
+  @Value("${oc.app.passwordEncoder.queueCapacity:16}")
+  private int passwordEncoderQueueCapacity;
+
+  @Value("${oc.app.bcrypt.strength:0}")
+  private int bcryptStrength;
+
+  @Value("${oc.app.bcrypt.targetMs:100}")
+  private long bcryptTargetMs;
+
+  @Value("${oc.app.bcrypt.minStrength:10}")
+  private int bcryptMinStrength;
+
+  @Value("${oc.app.bcrypt.maxStrength:16}")
+  private int bcryptMaxStrength;
+
   @Bean
   public AuthTokenFilter authenticationJwtTokenFilter() {
     return new AuthTokenFilter();
@@ -49,7 +74,11 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
 
   @Bean
   public PasswordEncoder passwordEncoder() {
-    return new BCryptPasswordEncoder();
+    AdaptiveBCryptPasswordEncoder bcrypt = bcryptStrength > 0
+        ? new AdaptiveBCryptPasswordEncoder(bcryptStrength)
+        : AdaptiveBCryptPasswordEncoder.calibrated(bcryptTargetMs, bcryptMinStrength, bcryptMaxStrength);
+
+    return new BoundedPasswordEncoder(bcrypt, passwordEncoderThreads, passwordEncoderQueueCapacity, meterRegistry);
   }
 
   @Override
@@ -57,7 +86,8 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
     http.cors().and().csrf().disable()
       .exceptionHandling().authenticationEntryPoint(unauthorizedHandler).and()
       .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS).and()
-      .authorizeRequests().antMatchers("/api/auth/**").permitAll()
+      .authorizeRequests().antMatchers("/api/auth/register/bulk").authenticated()
+      .antMatchers("/api/auth/**").permitAll()
       .antMatchers("/api/**").authenticated()
       .anyRequest().authenticated();
 
@@ -1,43 +1,61 @@
 package com.openclassrooms.starterjwt.security.jwt;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.http.MediaType;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.web.AuthenticationEntryPoint;
 import org.springframework.stereotype.Component;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
 
 @Component
 public class AuthEntryPointJwt implements AuthenticationEntryPoint {
 
-  private static final Logger logger = LoggerFactory.getLogger(AuthEntryPointJwt.class);
+  /**
+   * Thread-safe and shared by every response, with the constant parts of the
+   * body encoded once.
+   */
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final SerializableString STATUS = new SerializedString("status");
+  private static final SerializableString ERROR = new SerializedString("error");
+  private static final SerializableString UNAUTHORIZED = new SerializedString("Unauthorized");
+  private static final SerializableString MESSAGE = new SerializedString("message");
+  private static final SerializableString PATH = new SerializedString("path");
+
+  private final AuthErrorLogger authErrorLogger;
+
+  public AuthEntryPointJwt(AuthErrorLogger authErrorLogger) {
+    this.authErrorLogger = authErrorLogger;
+  }
 
   @Override
   public void commence(HttpServletRequest request, HttpServletResponse response, AuthenticationException authException)
       throws IOException, ServletException {
-    logger.error("Unauthorized error: {}", authException.getMessage());
+    authErrorLogger.record(AuthErrorLogger.Reason.UNAUTHORIZED, authException.getMessage());
 
     response.setContentType(MediaType.APPLICATION_JSON_VALUE);
     response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
 
-    final Map<String, Object> body = new HashMap<>();
-    body.put("status", HttpServletResponse.SC_UNAUTHORIZED);
-    body.put("error", "Unauthorized");
-    body.put("message", authException.getMessage());
-    body.put("path", request.getServletPath());
-
-    final ObjectMapper mapper = new ObjectMapper();
-    mapper.writeValue(response.getOutputStream(), body);
+    try (JsonGenerator generator = JSON_FACTORY.createGenerator(response.getOutputStream())) {
+      generator.writeStartObject();
+      generator.writeFieldName(STATUS);
+      generator.writeNumber(HttpServletResponse.SC_UNAUTHORIZED);
+      generator.writeFieldName(ERROR);
+      generator.writeString(UNAUTHORIZED);
+      generator.writeFieldName(MESSAGE);
+      generator.writeString(authException.getMessage());
+      generator.writeFieldName(PATH);
+      generator.writeString(request.getServletPath());
+      generator.writeEndObject();
+    }
   }
 
 }
@@ -0,0 +1,95 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Counts authentication failures per reason and logs only a sample of them:
+ * the first failure of each reason in every interval, along with how many
+ * similar ones were left out since the previous line. A flood of expired or
+ * forged tokens therefore costs a counter increment, not a log write.
+ */
+@Component
+public class AuthErrorLogger {
+  private static final Logger logger = LoggerFactory.getLogger(AuthErrorLogger.class);
+
+  public enum Reason {
+    EXPIRED("JWT token is expired"),
+    MALFORMED("Invalid JWT token"),
+    BAD_SIGNATURE("Invalid JWT signature"),
+    UNSUPPORTED("JWT token is unsupported"),
+    EMPTY("JWT claims string is empty"),
+    AUTHENTICATION_FAILED("Cannot set user authentication"),
+    UNAUTHORIZED("Unauthorized error");
+
+    private final String label;
+
+    Reason(String label) {
+      this.label = label;
+    }
+  }
+
+  private final long intervalNanos;
+
+  private final Map<Reason, Sampler> samplers = new EnumMap<>(Reason.class);
+
+  public AuthErrorLogger(MeterRegistry meterRegistry,
+      @Value("${oc.app.authErrorLog.intervalMs:10000}") long intervalMs) {
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+    for (Reason reason : Reason.values()) {
+      samplers.put(reason, new Sampler(Counter.builder("auth.errors")
+          .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+          .register(meterRegistry)));
+    }
+  }
+
+  /**
+   * Counts a failure and logs it if it is the first of its reason in the
+   * current interval.
+   *
+   * @param reason reason of the failure.
+   * @param detail message of the underlying exception.
+   */
+  public void record(Reason reason, String detail) {
+    Sampler sampler = samplers.get(reason);
+    sampler.counter.increment();
+
+    long now = System.nanoTime();
+    long next = sampler.nextLogAt.get();
+    if (now - next < 0 || !sampler.nextLogAt.compareAndSet(next, now + intervalNanos)) {
+      sampler.suppressed.increment();
+      return;
+    }
+
+    long suppressed = sampler.suppressed.sumThenReset();
+    if (suppressed > 0) {
+      logger.warn("{}: {} ({} similar suppressed)", reason.label, detail, suppressed);
+    } else {
+      logger.warn("{}: {}", reason.label, detail);
+    }
+  }
+
+  private static class Sampler {
+    private final Counter counter;
+
+    private final AtomicLong nextLogAt = new AtomicLong(System.nanoTime());
+
+    private final LongAdder suppressed = new LongAdder();
+
+    Sampler(Counter counter) {
+      this.counter = counter;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.openclassrooms.starterjwt.repository.UserDeletionRepository;
+
+import io.jsonwebtoken.Claims;
+
+/**
+ * Remembers the deleted users, whose tokens must no longer be accepted. User
+ * ids are never reused, so every token of a deleted user is revoked, whenever
+ * issued. A revocation only has to outlive the tokens issued before it, so
+ * entries are dropped after the token lifetime.
+ * <p>
+ * Deletions are persisted in USER_DELETIONS, along with USERS.deleted_at: the
+ * registry reloads the recent ones on a schedule and checks the user of every
+ * token seen for the first time, so that a deletion made on another node, or
+ * before a restart, is enforced here too.
+ */
+@Component
+public class JwtRevocationRegistry {
+  private final UserDeletionRepository userDeletionRepository;
+
+  private final long jwtExpirationMs;
+
+  private final Cache<Long, Boolean> deletedUserIds;
+
+  public JwtRevocationRegistry(UserDeletionRepository userDeletionRepository,
+      @Value("${oc.app.jwtExpirationMs}") long jwtExpirationMs) {
+    this.userDeletionRepository = userDeletionRepository;
+    this.jwtExpirationMs = jwtExpirationMs;
+    this.deletedUserIds = Caffeine.newBuilder()
+        .expireAfterWrite(jwtExpirationMs, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  /**
+   * Revokes every token of the given user, whose deletion has just been
+   * stored, without waiting for the next reload.
+   *
+   * @param userId id of the user.
+   */
+  public void revokeDeletedUser(Long userId) {
+    deletedUserIds.put(userId, Boolean.TRUE);
+  }
+
+  /**
+   * Revokes the tokens of the users deleted within the token lifetime, whatever
+   * the node that deleted them.
+   */
+  @Scheduled(fixedDelayString = "${oc.app.jwtRevocation.refreshMs:30000}")
+  public void reload() {
+    LocalDateTime since = LocalDateTime.now().minus(jwtExpirationMs, ChronoUnit.MILLIS);
+    userDeletionRepository.findUserIdsDeletedSince(since).forEach(this::revokeDeletedUser);
+  }
+
+  /**
+   * Revokes the tokens of the given user if it has been deleted, see
+   * JwtTokenCache.getVerifiedClaims.
+   *
+   * @param userId id of the user.
+   */
+  public void reloadUser(Long userId) {
+    if (userDeletionRepository.existsByUserId(userId)) {
+      revokeDeletedUser(userId);
+    }
+  }
+
+  /**
+   * @param claims verified claims of a token.
+   * @return true if the user of the token has been deleted.
+   */
+  public boolean isRevoked(Claims claims) {
+    Long userId = claims.get(JwtUtils.CLAIM_ID, Long.class);
+    return userId != null && deletedUserIds.getIfPresent(userId) != null;
+  }
+}
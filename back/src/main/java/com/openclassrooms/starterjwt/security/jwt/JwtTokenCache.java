@@ -0,0 +1,115 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Bounded cache of already verified JWTs, so that a bearer token is parsed and
+ * its signature checked only the first time it is presented. Entries are keyed
+ * by the SHA-256 digest of the token and expire at the token's own expiration.
+ * A token seen for the first time has its user checked against the stored
+ * deletions, which a node that just started, or didn't serve the deletion,
+ * wouldn't know about yet.
+ */
+@Component
+public class JwtTokenCache {
+  private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  });
+
+  private final JwtUtils jwtUtils;
+
+  private final JwtRevocationRegistry jwtRevocationRegistry;
+
+  private final Cache<ByteBuffer, Claims> cache;
+
+  public JwtTokenCache(JwtUtils jwtUtils,
+      JwtRevocationRegistry jwtRevocationRegistry,
+      MeterRegistry meterRegistry,
+      @Value("${oc.app.jwtCache.maxSize:10000}") long maxSize) {
+    this.jwtUtils = jwtUtils;
+    this.jwtRevocationRegistry = jwtRevocationRegistry;
+    this.cache = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfter(new UntilTokenExpiration())
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "jwtVerifiedTokens");
+  }
+
+  /**
+   * Returns the verified claims of the given token, checking its signature only
+   * on a cache miss.
+   *
+   * @param authToken the compact JWT.
+   * @return the verified claims, or null if the token is invalid or expired.
+   */
+  public Claims getVerifiedClaims(String authToken) {
+    ByteBuffer key = digest(authToken);
+    Claims claims = cache.getIfPresent(key);
+    if (claims != null) {
+      return claims;
+    }
+
+    claims = jwtUtils.getClaimsFromJwtToken(authToken);
+    if (claims != null && claims.getExpiration() != null) {
+      Long userId = claims.get(JwtUtils.CLAIM_ID, Long.class);
+      if (userId != null) {
+        jwtRevocationRegistry.reloadUser(userId);
+      }
+      cache.put(key, claims);
+    }
+    return claims;
+  }
+
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  private static ByteBuffer digest(String authToken) {
+    return ByteBuffer.wrap(SHA_256.get().digest(authToken.getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  /**
+   * Makes every entry live exactly until the expiration date of its token.
+   */
+  private static class UntilTokenExpiration implements Expiry<ByteBuffer, Claims> {
+    @Override
+    public long expireAfterCreate(ByteBuffer key, Claims claims, long currentTime) {
+      long remainingMs = claims.getExpiration().getTime() - System.currentTimeMillis();
+      return TimeUnit.MILLISECONDS.toNanos(Math.max(remainingMs, 0));
+    }
+
+    @Override
+    public long expireAfterUpdate(ByteBuffer key, Claims claims, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+
+    @Override
+    public long expireAfterRead(ByteBuffer key, Claims claims, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+}
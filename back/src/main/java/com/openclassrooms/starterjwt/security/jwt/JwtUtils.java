@@ -1,59 +1,170 @@
 package com.openclassrooms.starterjwt.security.jwt;
 
+import java.security.Key;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.spec.SecretKeySpec;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 
+import com.openclassrooms.starterjwt.security.jwt.AuthErrorLogger.Reason;
 import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
 
 import io.jsonwebtoken.*;
+import io.jsonwebtoken.impl.TextCodec;
 
 @Component
 public class JwtUtils {
-  private static final Logger logger = LoggerFactory.getLogger(JwtUtils.class);
+  static final String CLAIM_ID = "id";
+  private static final String CLAIM_FIRST_NAME = "firstName";
+  private static final String CLAIM_LAST_NAME = "lastName";
+  private static final String CLAIM_ADMIN = "admin";
+
+  private static final SignatureAlgorithm ALGORITHM = SignatureAlgorithm.HS512;
+
+  private final int jwtExpirationMs;
+
+  private final String signingKeyId;
+
+  private final Key signingKey;
 
-  @Value("${oc.app.jwtSecret}")
-  private String jwtSecret;
+  private final Map<String, Key> verificationKeys;
 
-  @Value("${oc.app.jwtExpirationMs}")
-  private int jwtExpirationMs;
+  private final JwtParser parser;
+
+  private final AuthErrorLogger authErrorLogger;
+
+  /**
+   * Derives the keys once and builds the parser shared by every request.
+   *
+   * @param jwtSecret       secret signing new tokens.
+   * @param jwtExpirationMs lifetime of new tokens, in milliseconds.
+   * @param jwtKeyId        kid header of new tokens.
+   * @param previousSecrets comma separated "kid:secret" pairs of rotated out
+   *                        secrets, still accepted until their tokens expire.
+   * @param authErrorLogger counts and samples the rejected tokens.
+   */
+  public JwtUtils(@Value("${oc.app.jwtSecret}") String jwtSecret,
+      @Value("${oc.app.jwtExpirationMs}") int jwtExpirationMs,
+      @Value("${oc.app.jwtKeyId:1}") String jwtKeyId,
+      @Value("${oc.app.jwtPreviousSecrets:}") String previousSecrets,
+      AuthErrorLogger authErrorLogger) {
+    this.authErrorLogger = authErrorLogger;
+    this.jwtExpirationMs = jwtExpirationMs;
+    this.signingKeyId = jwtKeyId;
+    this.signingKey = toKey(jwtSecret);
+
+    Map<String, Key> keys = new HashMap<>();
+    for (String entry : StringUtils.commaDelimitedListToStringArray(previousSecrets)) {
+      String[] kidAndSecret = entry.trim().split(":", 2);
+      if (kidAndSecret.length != 2) {
+        throw new IllegalArgumentException("oc.app.jwtPreviousSecrets entries must be kid:secret");
+      }
+      keys.put(kidAndSecret[0], toKey(kidAndSecret[1]));
+    }
+    keys.put(jwtKeyId, signingKey);
+    this.verificationKeys = Collections.unmodifiableMap(keys);
+
+    // The parser holds no per-parse state once configured, so it can be shared across threads.
+    this.parser = Jwts.parser().setSigningKeyResolver(new KidSigningKeyResolver());
+  }
 
   public String generateJwtToken(Authentication authentication) {
 
     UserDetailsImpl userPrincipal = (UserDetailsImpl) authentication.getPrincipal();
+    long now = System.currentTimeMillis();
 
     return Jwts.builder()
+        .setHeaderParam(JwsHeader.KEY_ID, signingKeyId)
         .setSubject((userPrincipal.getUsername()))
-        .setIssuedAt(new Date())
-        .setExpiration(new Date((new Date()).getTime() + jwtExpirationMs))
-        .signWith(SignatureAlgorithm.HS512, jwtSecret)
+        .claim(CLAIM_ID, userPrincipal.getId())
+        .claim(CLAIM_FIRST_NAME, userPrincipal.getFirstName())
+        .claim(CLAIM_LAST_NAME, userPrincipal.getLastName())
+        .claim(CLAIM_ADMIN, Boolean.TRUE.equals(userPrincipal.getAdmin()))
+        .setIssuedAt(new Date(now))
+        .setExpiration(new Date(now + jwtExpirationMs))
+        .signWith(ALGORITHM, signingKey)
         .compact();
   }
 
-  public String getUserNameFromJwtToken(String token) {
-    return Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(token).getBody().getSubject();
+  /**
+   * Rebuilds the principal from the claims embedded by generateJwtToken,
+   * without any database lookup.
+   *
+   * @param claims verified claims of a token.
+   * @return the principal, or null if the token predates the embedded claims.
+   */
+  public UserDetailsImpl getUserDetailsFromClaims(Claims claims) {
+    Long id = claims.get(CLAIM_ID, Long.class);
+    if (id == null) {
+      return null;
+    }
+
+    return UserDetailsImpl
+        .builder()
+        .id(id)
+        .username(claims.getSubject())
+        .firstName(claims.get(CLAIM_FIRST_NAME, String.class))
+        .lastName(claims.get(CLAIM_LAST_NAME, String.class))
+        .admin(Boolean.TRUE.equals(claims.get(CLAIM_ADMIN, Boolean.class)))
+        .build();
   }
 
-  public boolean validateJwtToken(String authToken) {
+  /**
+   * Parses the token and checks its signature and expiration in a single pass.
+   *
+   * @param authToken the compact JWT.
+   * @return the verified claims, or null if the token is invalid.
+   */
+  public Claims getClaimsFromJwtToken(String authToken) {
     try {
-      Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(authToken);
-      return true;
+      return parser.parseClaimsJws(authToken).getBody();
     } catch (SignatureException e) {
-      logger.error("Invalid JWT signature: {}", e.getMessage());
+      authErrorLogger.record(Reason.BAD_SIGNATURE, e.getMessage());
     } catch (MalformedJwtException e) {
-      logger.error("Invalid JWT token: {}", e.getMessage());
+      authErrorLogger.record(Reason.MALFORMED, e.getMessage());
     } catch (ExpiredJwtException e) {
-      logger.error("JWT token is expired: {}", e.getMessage());
+      authErrorLogger.record(Reason.EXPIRED, e.getMessage());
     } catch (UnsupportedJwtException e) {
-      logger.error("JWT token is unsupported: {}", e.getMessage());
+      authErrorLogger.record(Reason.UNSUPPORTED, e.getMessage());
     } catch (IllegalArgumentException e) {
-      logger.error("JWT claims string is empty: {}", e.getMessage());
+      authErrorLogger.record(Reason.EMPTY, e.getMessage());
     }
 
-    return false;
+    return null;
+  }
+
+  /**
+   * Decodes the secret the same way jjwt does for string keys, so that tokens
+   * signed before keys were pre-built remain valid.
+   */
+  private static Key toKey(String secret) {
+    return new SecretKeySpec(TextCodec.BASE64.decode(secret), ALGORITHM.getJcaName());
+  }
+
+  /**
+   * Picks the verification key from the kid header. Tokens issued without a kid
+   * are checked against the current signing key.
+   */
+  private class KidSigningKeyResolver extends SigningKeyResolverAdapter {
+    @Override
+    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+      String keyId = header.getKeyId();
+      if (keyId == null) {
+        return signingKey;
+      }
+
+      Key key = verificationKeys.get(keyId);
+      if (key == null) {
+        throw new SignatureException("Unknown JWT key id: " + keyId);
+      }
+      return key;
+    }
   }
 }
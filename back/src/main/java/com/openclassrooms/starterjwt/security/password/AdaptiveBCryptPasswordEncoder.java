@@ -0,0 +1,82 @@
+package com.openclassrooms.starterjwt.security.password;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ * BCrypt encoder whose cost is chosen at startup by benchmarking the host
+ * against a target hashing time. Hashes stored with a lower cost are reported
+ * as needing an upgrade, so they get re-encoded on the next successful login.
+ * Higher costs are kept: nodes calibrated differently, or one calibrated again
+ * after a restart, would otherwise rehash the same passwords back and forth.
+ */
+public class AdaptiveBCryptPasswordEncoder extends BCryptPasswordEncoder {
+  private static final Logger logger = LoggerFactory.getLogger(AdaptiveBCryptPasswordEncoder.class);
+
+  private static final Pattern BCRYPT_PATTERN = Pattern.compile("\\A\\$2(a|y|b)?\\$(\\d\\d)\\$[./0-9A-Za-z]{53}");
+
+  private static final int SAMPLES = 3;
+
+  private final int strength;
+
+  public AdaptiveBCryptPasswordEncoder(int strength) {
+    super(strength);
+    this.strength = strength;
+  }
+
+  /**
+   * Creates an encoder with the highest cost whose hashing time on this host
+   * stays within the target.
+   *
+   * @param targetMs    target time of a single hash, in milliseconds.
+   * @param minStrength cost used even if it exceeds the target.
+   * @param maxStrength cost never exceeded.
+   * @return the calibrated encoder.
+   */
+  public static AdaptiveBCryptPasswordEncoder calibrated(long targetMs, int minStrength, int maxStrength) {
+    double minStrengthMs = measureMs(minStrength);
+
+    // Each additional cost round doubles the hashing time.
+    int strength = minStrength;
+    double estimatedMs = minStrengthMs;
+    while (strength < maxStrength && estimatedMs * 2 <= targetMs) {
+      strength++;
+      estimatedMs *= 2;
+    }
+
+    logger.info("BCrypt strength calibrated to {} (~{} ms per hash, target {} ms)", strength,
+        Math.round(estimatedMs), targetMs);
+    return new AdaptiveBCryptPasswordEncoder(strength);
+  }
+
+  public int getStrength() {
+    return strength;
+  }
+
+  @Override
+  public boolean upgradeEncoding(String encodedPassword) {
+    if (encodedPassword == null) {
+      return false;
+    }
+
+    Matcher matcher = BCRYPT_PATTERN.matcher(encodedPassword);
+    return matcher.matches() && Integer.parseInt(matcher.group(2)) < strength;
+  }
+
+  private static double measureMs(int strength) {
+    BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(strength);
+    encoder.encode("calibration");
+
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < SAMPLES; i++) {
+      long start = System.nanoTime();
+      encoder.encode("calibration");
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best / 1_000_000d;
+  }
+}
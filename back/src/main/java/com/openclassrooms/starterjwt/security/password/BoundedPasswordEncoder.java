@@ -0,0 +1,109 @@
+package com.openclassrooms.starterjwt.security.password;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Runs the CPU bound work of a delegate encoder on a dedicated, size-limited
+ * pool, so that a burst of logins cannot use up the request threads. When the
+ * pool and its queue are full, calls fail fast with
+ * {@link PasswordEncoderSaturatedException}.
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder, DisposableBean {
+  private final PasswordEncoder delegate;
+
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * One permit per thread and per queue slot, held by the caller for as long as
+   * it waits for its hash.
+   */
+  private final Semaphore permits;
+
+  private final Timer encodeTimer;
+
+  private final Timer matchesTimer;
+
+  private final Counter rejectedCounter;
+
+  public BoundedPasswordEncoder(PasswordEncoder delegate, int threads, int queueCapacity,
+      MeterRegistry meterRegistry) {
+    this.delegate = delegate;
+
+    this.permits = new Semaphore(threads + queueCapacity);
+
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("password-encoder-");
+    threadFactory.setDaemon(true);
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+        threadFactory);
+
+    this.encodeTimer = Timer.builder("auth.password.hash").tag("operation", "encode").register(meterRegistry);
+    this.matchesTimer = Timer.builder("auth.password.hash").tag("operation", "matches").register(meterRegistry);
+    this.rejectedCounter = Counter.builder("auth.password.rejected").register(meterRegistry);
+    Gauge.builder("auth.password.queue", executor, e -> e.getQueue().size()).register(meterRegistry);
+    Gauge.builder("auth.password.active", executor, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+  }
+
+  @Override
+  public String encode(CharSequence rawPassword) {
+    return submit(() -> delegate.encode(rawPassword), encodeTimer);
+  }
+
+  @Override
+  public boolean matches(CharSequence rawPassword, String encodedPassword) {
+    return submit(() -> delegate.matches(rawPassword, encodedPassword), matchesTimer);
+  }
+
+  @Override
+  public boolean upgradeEncoding(String encodedPassword) {
+    return delegate.upgradeEncoding(encodedPassword);
+  }
+
+  @Override
+  public void destroy() {
+    executor.shutdown();
+  }
+
+  private <T> T submit(Callable<T> task, Timer timer) {
+    if (!permits.tryAcquire()) {
+      rejectedCounter.increment();
+      throw new PasswordEncoderSaturatedException();
+    }
+
+    try {
+      Future<T> future = executor.submit(() -> timer.recordCallable(task));
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        future.cancel(true);
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while hashing password", e);
+      }
+    } catch (RejectedExecutionException e) {
+      rejectedCounter.increment();
+      throw new PasswordEncoderSaturatedException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      permits.release();
+    }
+  }
+}
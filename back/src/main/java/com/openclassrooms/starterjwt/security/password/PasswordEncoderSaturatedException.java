@@ -0,0 +1,13 @@
+package com.openclassrooms.starterjwt.security.password;
+
+/**
+ * Thrown when every password hashing thread is busy and the waiting queue is
+ * full, so that the request can be rejected right away.
+ */
+public class PasswordEncoderSaturatedException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public PasswordEncoderSaturatedException() {
+    super("Password hashing capacity exceeded");
+  }
+}
@@ -0,0 +1,98 @@
+package com.openclassrooms.starterjwt.security.ratelimit;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Throttles login attempts per client IP and per account before any password
+ * hashing happens. Each key gets its own {@link TokenBucket}; buckets live in
+ * size-bounded caches and are dropped once idle, an idle bucket being full
+ * anyway.
+ */
+@Component
+public class LoginRateLimiter {
+  private final Limit ipLimit;
+
+  private final Limit accountLimit;
+
+  private final LongSupplier nanoClock;
+
+  @Autowired
+  public LoginRateLimiter(MeterRegistry meterRegistry,
+      @Value("${oc.app.loginRateLimit.perIp.capacity:20}") long ipCapacity,
+      @Value("${oc.app.loginRateLimit.perIp.refillPerMinute:10}") long ipRefillPerMinute,
+      @Value("${oc.app.loginRateLimit.perAccount.capacity:5}") long accountCapacity,
+      @Value("${oc.app.loginRateLimit.perAccount.refillPerMinute:5}") long accountRefillPerMinute,
+      @Value("${oc.app.loginRateLimit.maxKeys:100000}") long maxKeys) {
+    this(meterRegistry, ipCapacity, ipRefillPerMinute, accountCapacity, accountRefillPerMinute, maxKeys,
+        System::nanoTime);
+  }
+
+  LoginRateLimiter(MeterRegistry meterRegistry, long ipCapacity, long ipRefillPerMinute, long accountCapacity,
+      long accountRefillPerMinute, long maxKeys, LongSupplier nanoClock) {
+    this.nanoClock = nanoClock;
+    this.ipLimit = new Limit("ip", ipCapacity, ipRefillPerMinute, maxKeys, meterRegistry);
+    this.accountLimit = new Limit("account", accountCapacity, accountRefillPerMinute, maxKeys, meterRegistry);
+  }
+
+  /**
+   * Takes a token from the buckets of the client IP and of the account. The
+   * account bucket is left untouched when the IP is already throttled.
+   *
+   * @param clientIp address of the client.
+   * @param email    email the client tries to log in with.
+   * @return 0 if the attempt is allowed, otherwise the milliseconds to wait
+   *         before retrying.
+   */
+  public long tryAcquire(String clientIp, String email) {
+    long now = nanoClock.getAsLong();
+    long waitNanos = ipLimit.tryConsume(clientIp, now);
+    if (waitNanos == 0 && email != null) {
+      waitNanos = accountLimit.tryConsume(email.toLowerCase(Locale.ROOT), now);
+    }
+    return waitNanos == 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+  }
+
+  private static class Limit {
+    private final long capacity;
+
+    private final long refillIntervalNanos;
+
+    private final Cache<String, TokenBucket> buckets;
+
+    private final Counter throttledCounter;
+
+    Limit(String name, long capacity, long refillPerMinute, long maxKeys, MeterRegistry meterRegistry) {
+      this.capacity = capacity;
+      this.refillIntervalNanos = TimeUnit.MINUTES.toNanos(1) / refillPerMinute;
+      // A bucket idle for longer than this is full again, so forgetting it changes nothing.
+      this.buckets = Caffeine.newBuilder()
+          .maximumSize(maxKeys)
+          .expireAfterAccess(capacity * refillIntervalNanos, TimeUnit.NANOSECONDS)
+          .recordStats()
+          .build();
+      this.throttledCounter = Counter.builder("auth.login.throttled").tag("key", name).register(meterRegistry);
+      CaffeineCacheMetrics.monitor(meterRegistry, buckets, "loginRateLimit." + name);
+    }
+
+    long tryConsume(String key, long now) {
+      long waitNanos = buckets.get(key, k -> new TokenBucket(capacity, refillIntervalNanos, now)).tryConsume(now);
+      if (waitNanos > 0) {
+        throttledCounter.increment();
+      }
+      return waitNanos;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package com.openclassrooms.starterjwt.security.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket holding a single long: the theoretical time at which
+ * the bucket will be full again (generic cell rate algorithm). Taking a token
+ * pushes that time one refill interval further; the attempt is refused when
+ * it would land more than the bucket capacity ahead of now.
+ */
+class TokenBucket {
+  private final long capacity;
+
+  private final long refillIntervalNanos;
+
+  private final AtomicLong fullAtNanos;
+
+  TokenBucket(long capacity, long refillIntervalNanos, long nowNanos) {
+    this.capacity = capacity;
+    this.refillIntervalNanos = refillIntervalNanos;
+    this.fullAtNanos = new AtomicLong(nowNanos);
+  }
+
+  /**
+   * Takes a token if one is available.
+   *
+   * @param nowNanos current time, from the same source as the creation time.
+   * @return 0 if a token has been taken, otherwise the nanoseconds to wait for
+   *         the next one.
+   */
+  long tryConsume(long nowNanos) {
+    while (true) {
+      long fullAt = fullAtNanos.get();
+      long next = Math.max(fullAt, nowNanos) + refillIntervalNanos;
+      long waitNanos = next - nowNanos - capacity * refillIntervalNanos;
+      if (waitNanos > 0) {
+        return waitNanos;
+      }
+      if (fullAtNanos.compareAndSet(fullAt, next)) {
+        return 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.openclassrooms.starterjwt.security.services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * In-process cache of the principals loaded by {@link UserDetailsServiceImpl},
+ * keyed by email. Entries are bounded in number and age, and are evicted
+ * explicitly whenever the underlying user is created or deleted.
+ */
+@Component
+public class UserDetailsCache {
+  private final Cache<String, UserDetailsImpl> cache;
+
+  public UserDetailsCache(MeterRegistry meterRegistry,
+      @Value("${oc.app.userDetailsCache.maxSize:10000}") long maxSize,
+      @Value("${oc.app.userDetailsCache.ttlSeconds:300}") long ttlSeconds) {
+    this.cache = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "userDetails");
+  }
+
+  /**
+   * Returns the cached principal for the given email, loading it on a miss.
+   * Exceptions thrown by the loader are propagated and nothing is cached.
+   *
+   * @param email  email of the user.
+   * @param loader function loading the principal from the database.
+   * @return the principal.
+   */
+  public UserDetailsImpl get(String email, Function<String, UserDetailsImpl> loader) {
+    return cache.get(email, loader);
+  }
+
+  public void evict(String email) {
+    cache.invalidate(email);
+  }
+
+  /**
+   * Evicts the principal of the user with the given id, whatever its email.
+   *
+   * @param userId id of the user.
+   */
+  public void evictUser(Long userId) {
+    cache.asMap().values().removeIf(userDetails -> userId.equals(userDetails.getId()));
+  }
+}
@@ -1,10 +1,12 @@
 package com.openclassrooms.starterjwt.security.services;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Objects;
 
 import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -19,6 +21,8 @@ import lombok.Getter;
 public class UserDetailsImpl implements UserDetails {
   private static final long serialVersionUID = 1L;
 
+  private static final GrantedAuthority ROLE_ADMIN = new SimpleGrantedAuthority("ROLE_ADMIN");
+
   private Long id;
 
   private String username;
@@ -32,7 +36,14 @@ public class UserDetailsImpl implements UserDetails {
   @JsonIgnore
   private String password;  
   
+  /**
+   * Grants ROLE_ADMIN to admins, so that endpoints can require it with
+   * {@code @PreAuthorize("hasRole('ADMIN')")}.
+   */
   public Collection<? extends GrantedAuthority> getAuthorities() {        
+      if (Boolean.TRUE.equals(admin)) {
+        return Collections.singleton(ROLE_ADMIN);
+      }
       return new HashSet<GrantedAuthority>();
   }
 
@@ -0,0 +1,102 @@
+package com.openclassrooms.starterjwt.services;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads RFC 4180 records one at a time: comma separated fields, optionally
+ * double quoted, where quoted fields may hold commas, doubled quotes and line
+ * breaks.
+ */
+class CsvReader implements Closeable {
+    private final BufferedReader reader;
+
+    private int line = 1;
+
+    private int recordLine;
+
+    private int pushedBack = -2;
+
+    CsvReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * @return the fields of the next record, or null at the end of the input.
+     * @throws IllegalArgumentException if a quoted field isn't closed.
+     */
+    List<String> readRecord() throws IOException {
+        this.recordLine = this.line;
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IllegalArgumentException("Unterminated quoted field");
+                }
+                if (c == '"') {
+                    int next = read();
+                    if (next != '"') {
+                        quoted = false;
+                        c = next;
+                        continue;
+                    }
+                }
+                field.append((char) c);
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r' || c == -1) {
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n') {
+                        this.pushedBack = next;
+                    }
+                }
+                fields.add(field.toString());
+                return fields;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * @return the line on which the last read record starts, from 1.
+     */
+    int getRecordLine() {
+        return this.recordLine;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+    private int read() throws IOException {
+        int c;
+        if (this.pushedBack != -2) {
+            c = this.pushedBack;
+            this.pushedBack = -2;
+        } else {
+            c = this.reader.read();
+        }
+        if (c == '\n') {
+            this.line++;
+        }
+        return c;
+    }
+}
@@ -0,0 +1,179 @@
+package com.openclassrooms.starterjwt.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.openclassrooms.starterjwt.datasource.ReadWriteRoutingDataSource;
+import com.openclassrooms.starterjwt.dto.SessionDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache of session DTOs and of session listing pages. Every write
+ * to a session bumps a version and evicts the affected entries once the write
+ * is committed. A value loaded while a write was committed is dropped instead
+ * of being cached, so a reader never sees participants older than the last
+ * successful write.
+ */
+@Component
+public class SessionCache {
+    private final Cache<Long, Entry<SessionDto>> sessions;
+
+    private final Cache<PageKey, Entry<SessionPage>> pages;
+
+    private final AtomicLong version = new AtomicLong();
+
+    private final Timer entryAge;
+
+    private final Counter discardedLoads;
+
+    public SessionCache(MeterRegistry meterRegistry,
+                        @Value("${oc.app.sessionCache.maxSize:1000}") long maxSize,
+                        @Value("${oc.app.sessionCache.ttlSeconds:300}") long ttlSeconds) {
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.pages = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, sessions, "sessions");
+        CaffeineCacheMetrics.monitor(meterRegistry, pages, "sessionPages");
+        this.entryAge = Timer.builder("cache.sessions.entry.age")
+                .description("Time since the served entry was loaded")
+                .register(meterRegistry);
+        this.discardedLoads = Counter.builder("cache.sessions.discarded")
+                .description("Loads not cached because a write was committed meanwhile")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached DTO of the given session, loading it on a miss. Null
+     * results are not cached.
+     *
+     * @param id     id of the session.
+     * @param loader function loading the DTO from the database.
+     * @return the DTO, or null if the loader found nothing.
+     */
+    public SessionDto get(Long id, Function<Long, SessionDto> loader) {
+        return read(sessions, id, () -> loader.apply(id));
+    }
+
+    /**
+     * Returns the cached listing page for the given key, loading it on a miss.
+     *
+     * @param key    bounds, position and size of the page.
+     * @param loader supplier loading the page from the database.
+     * @return the page.
+     */
+    public SessionPage getPage(PageKey key, Supplier<SessionPage> loader) {
+        return read(pages, key, loader);
+    }
+
+    /**
+     * Evicts the given session and every listing page, right away or, within a
+     * transaction, once it is committed.
+     *
+     * @param id id of the written session, or null to evict every session.
+     */
+    public void evict(Long id) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    doEvict(id);
+                }
+            });
+        } else {
+            doEvict(id);
+        }
+    }
+
+    /**
+     * Evicts every cached session and listing page, e.g. after a write that
+     * touched many sessions at once.
+     */
+    public void evictAll() {
+        evict(null);
+    }
+
+    private void doEvict(Long id) {
+        // The version must move before the entries go, see read().
+        version.incrementAndGet();
+        if (id != null) {
+            sessions.invalidate(id);
+        } else {
+            sessions.invalidateAll();
+        }
+        pages.invalidateAll();
+    }
+
+    private <K, V> V read(Cache<K, Entry<V>> cache, K key, Supplier<V> loader) {
+        Entry<V> entry = cache.getIfPresent(key);
+        if (entry != null) {
+            entryAge.record(System.nanoTime() - entry.loadedAtNanos, TimeUnit.NANOSECONDS);
+            return entry.value;
+        }
+
+        long versionBeforeLoad = version.get();
+        // The entry is only evicted by writes, so it mustn't come from a lagging replica.
+        V value = ReadWriteRoutingDataSource.onPrimary(loader);
+        if (value == null) {
+            return null;
+        }
+
+        if (versionBeforeLoad != version.get()) {
+            discardedLoads.increment();
+            return value;
+        }
+        cache.put(key, new Entry<>(value, System.nanoTime()));
+        // A write committed between the check and the put may have evicted
+        // before the put landed; drop the possibly stale entry in that case.
+        if (versionBeforeLoad != version.get()) {
+            cache.invalidate(key);
+            discardedLoads.increment();
+        }
+        return value;
+    }
+
+    @lombok.Value
+    public static class PageKey {
+        Date from;
+        Date to;
+        Date afterDate;
+        Long afterId;
+        int size;
+    }
+
+    @lombok.Value
+    public static class SessionPage {
+        List<SessionDto> sessions;
+        String nextCursor;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+
+        private final long loadedAtNanos;
+
+        Entry(V value, long loadedAtNanos) {
+            this.value = value;
+            this.loadedAtNanos = loadedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.openclassrooms.starterjwt.services;
+
+import com.openclassrooms.starterjwt.dto.SessionDto;
+import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.models.Teacher;
+import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.repository.TeacherRepository;
+import com.openclassrooms.starterjwt.repository.UserRepository;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Creates sessions in bulk, from a list or from a CSV stream, committing them
+ * a chunk at a time so that memory use doesn't grow with the input.
+ */
+@Service
+public class SessionImportService {
+    /**
+     * Sessions saved per transaction, a multiple of hibernate.jdbc.batch_size.
+     */
+    static final int CHUNK_SIZE = 500;
+
+    static final int MAX_REPORTED_ERRORS = 100;
+
+    private static final List<String> CSV_COLUMNS = Collections.unmodifiableList(
+            Arrays.asList("name", "date", "teacher_id", "description"));
+
+    private final TeacherRepository teacherRepository;
+
+    private final UserRepository userRepository;
+
+    private final SessionCache sessionCache;
+
+    private final EntityManager entityManager;
+
+    private final Validator validator;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public SessionImportService(TeacherRepository teacherRepository,
+                                UserRepository userRepository,
+                                SessionCache sessionCache,
+                                EntityManager entityManager,
+                                Validator validator,
+                                PlatformTransactionManager transactionManager) {
+        this.teacherRepository = teacherRepository;
+        this.userRepository = userRepository;
+        this.sessionCache = sessionCache;
+        this.entityManager = entityManager;
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @lombok.Value
+    public static class ImportReport {
+        long imported;
+        long rejected;
+        /**
+         * The first MAX_REPORTED_ERRORS rejections, e.g. "Line 3: Error: Unknown teacher id 42".
+         */
+        List<String> errors;
+    }
+
+    /**
+     * Creates the given sessions, rows being numbered from 1 in the errors.
+     *
+     * @param sessions sessions to create.
+     * @return how many sessions have been created, and why the others haven't.
+     */
+    public ImportReport createAll(List<SessionDto> sessions) {
+        Report report = new Report();
+        List<Row> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (int i = 0; i < sessions.size(); i++) {
+            chunk.add(new Row("Row " + (i + 1), sessions.get(i), null));
+            if (chunk.size() == CHUNK_SIZE) {
+                saveChunk(chunk, report);
+                chunk.clear();
+            }
+        }
+        saveChunk(chunk, report);
+        return report.toImportReport();
+    }
+
+    /**
+     * Creates a session for each record of the CSV input, read as it goes. The
+     * first record must be a header naming the name, date, teacher_id and
+     * description columns, in any order. Dates are ISO-8601 instants, e.g.
+     * 2024-01-15T18:30:00Z, or dates, e.g. 2024-01-15, read as midnight UTC.
+     *
+     * @param reader CSV input, closed once read.
+     * @return how many sessions have been created, and why the others haven't.
+     */
+    public ImportReport importCsv(Reader reader) throws IOException {
+        Report report = new Report();
+        try (CsvReader csv = new CsvReader(reader)) {
+            Map<String, Integer> columns;
+            try {
+                columns = readHeader(csv.readRecord());
+            } catch (IllegalArgumentException e) {
+                report.reject("Line 1: Error: " + e.getMessage());
+                return report.toImportReport();
+            }
+
+            List<Row> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (true) {
+                List<String> record;
+                try {
+                    record = csv.readRecord();
+                } catch (IllegalArgumentException e) {
+                    report.reject("Line " + csv.getRecordLine() + ": Error: " + e.getMessage());
+                    break;
+                }
+                if (record == null) {
+                    break;
+                }
+                if (record.size() == 1 && record.get(0).isEmpty()) {
+                    continue;
+                }
+
+                chunk.add(toRow("Line " + csv.getRecordLine(), record, columns));
+                if (chunk.size() == CHUNK_SIZE) {
+                    saveChunk(chunk, report);
+                    chunk.clear();
+                }
+            }
+            saveChunk(chunk, report);
+        }
+        return report.toImportReport();
+    }
+
+    private static Map<String, Integer> readHeader(List<String> header) {
+        if (header == null) {
+            throw new IllegalArgumentException("Missing header");
+        }
+
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(header.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        List<String> missing = CSV_COLUMNS.stream().filter(column -> !columns.containsKey(column))
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException("Missing columns " + missing);
+        }
+        return columns;
+    }
+
+    private static Row toRow(String label, List<String> record, Map<String, Integer> columns) {
+        SessionDto session = new SessionDto();
+        session.setName(field(record, columns, "name"));
+        session.setDescription(field(record, columns, "description"));
+
+        String date = field(record, columns, "date");
+        if (date != null) {
+            try {
+                session.setDate(parseDate(date));
+            } catch (DateTimeParseException e) {
+                return new Row(label, session, "Error: Invalid date " + date);
+            }
+        }
+
+        String teacherId = field(record, columns, "teacher_id");
+        if (teacherId != null) {
+            try {
+                session.setTeacher_id(Long.parseLong(teacherId));
+            } catch (NumberFormatException e) {
+                return new Row(label, session, "Error: Invalid teacher id " + teacherId);
+            }
+        }
+        return new Row(label, session, null);
+    }
+
+    private static String field(List<String> record, Map<String, Integer> columns, String column) {
+        int index = columns.get(column);
+        if (index >= record.size()) {
+            return null;
+        }
+        String value = record.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static Date parseDate(String date) {
+        if (date.length() == 10) {
+            return Date.from(LocalDate.parse(date).atStartOfDay(ZoneOffset.UTC).toInstant());
+        }
+        return Date.from(Instant.parse(date));
+    }
+
+    /**
+     * Checks the rows of the chunk, with one query for their teachers and one for
+     * their participants, then saves the valid ones in a single transaction,
+     * flushed as JDBC batches, and leaves none of them in the persistence
+     * context. Should the transaction fail, the rows are saved one at a time.
+     */
+    private void saveChunk(List<Row> chunk, Report report) {
+        List<Row> valid = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            String error = row.error;
+            if (error == null) {
+                Set<ConstraintViolation<SessionDto>> violations = this.validator.validate(row.session);
+                if (!violations.isEmpty()) {
+                    error = "Error: " + violations.stream()
+                            .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                            .sorted().collect(Collectors.joining(", "));
+                }
+            }
+
+            if (error != null) {
+                report.reject(row.label + ": " + error);
+            } else {
+                valid.add(row);
+            }
+        }
+        if (valid.isEmpty()) {
+            return;
+        }
+
+        Set<Long> teacherIds = this.teacherRepository.findExistingIds(valid.stream()
+                .map(row -> row.session.getTeacher_id()).collect(Collectors.toSet()));
+        Set<Long> userIds = valid.stream().filter(row -> row.session.getUsers() != null)
+                .flatMap(row -> row.session.getUsers().stream()).collect(Collectors.toSet());
+        Set<Long> existingUserIds = userIds.isEmpty() ? Collections.emptySet()
+                : this.userRepository.findExistingIds(userIds);
+
+        List<Row> toSave = new ArrayList<>(valid.size());
+        for (Row row : valid) {
+            SessionDto session = row.session;
+            List<Long> unknownUsers = session.getUsers() == null ? Collections.emptyList()
+                    : session.getUsers().stream().filter(id -> !existingUserIds.contains(id)).distinct()
+                    .collect(Collectors.toList());
+            if (!teacherIds.contains(session.getTeacher_id())) {
+                report.reject(row.label + ": Error: Unknown teacher id " + session.getTeacher_id());
+            } else if (!unknownUsers.isEmpty()) {
+                report.reject(row.label + ": Error: Unknown user ids " + unknownUsers);
+            } else {
+                toSave.add(row);
+            }
+        }
+        if (toSave.isEmpty()) {
+            return;
+        }
+
+        try {
+            save(toSave);
+            report.imported += toSave.size();
+        } catch (DataIntegrityViolationException e) {
+            // A teacher or user deleted in the meantime: the chunk is replayed row by
+            // row, so that only the rows referencing them are rejected.
+            for (Row row : toSave) {
+                try {
+                    save(Collections.singletonList(row));
+                    report.imported++;
+                } catch (DataIntegrityViolationException rowFailure) {
+                    report.reject(row.label + ": Error: Session could not be saved");
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the sessions of the rows in a single transaction, flushed as JDBC
+     * batches.
+     */
+    private void save(List<Row> rows) {
+        this.transactionTemplate.executeWithoutResult(status -> {
+            for (Row row : rows) {
+                this.entityManager.persist(toEntity(row.session));
+            }
+            // Detached once written, in case the entity manager outlives the transaction.
+            this.entityManager.flush();
+            this.entityManager.clear();
+            this.sessionCache.evictAll();
+        });
+    }
+
+    /**
+     * Builds the session with references to its teacher and participants, so
+     * that they aren't loaded.
+     */
+    private Session toEntity(SessionDto session) {
+        List<User> users = new ArrayList<>();
+        if (session.getUsers() != null) {
+            for (Long userId : new HashSet<>(session.getUsers())) {
+                users.add(this.entityManager.getReference(User.class, userId));
+            }
+        }
+
+        return Session.builder()
+                .name(session.getName())
+                .date(session.getDate())
+                .description(session.getDescription())
+                .teacher(this.entityManager.getReference(Teacher.class, session.getTeacher_id()))
+                .users(users)
+                .build();
+    }
+
+    private static final class Row {
+        final String label;
+        final SessionDto session;
+        final String error;
+
+        Row(String label, SessionDto session, String error) {
+            this.label = label;
+            this.session = session;
+            this.error = error;
+        }
+    }
+
+    private static final class Report {
+        long imported;
+        long rejected;
+        final List<String> errors = new ArrayList<>();
+
+        void reject(String error) {
+            this.rejected++;
+            if (this.errors.size() < MAX_REPORTED_ERRORS) {
+                this.errors.add(error);
+            }
+        }
+
+        ImportReport toImportReport() {
+            return new ImportReport(this.imported, this.rejected, this.errors);
+        }
+    }
+}
@@ -1,78 +1,446 @@
 package com.openclassrooms.starterjwt.services;
 
+import com.openclassrooms.starterjwt.dto.SessionDto;
 import com.openclassrooms.starterjwt.exception.BadRequestException;
 import com.openclassrooms.starterjwt.exception.NotFoundException;
+import com.openclassrooms.starterjwt.mapper.SessionMapper;
 import com.openclassrooms.starterjwt.models.Session;
-import com.openclassrooms.starterjwt.models.User;
 import com.openclassrooms.starterjwt.repository.SessionRepository;
 import com.openclassrooms.starterjwt.repository.UserRepository;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.DigestUtils;
 
+import javax.persistence.EntityManager;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class SessionService {
+    /**
+     * Upper bound used when no end date is given, 9999-12-31T23:59:59Z.
+     */
+    private static final Date END_OF_TIME = new Date(253402300799000L);
+
+    /**
+     * Attempts made by a participation change that keeps losing lock races,
+     * e.g. deadlocks between concurrent joins, before giving up.
+     */
+    static final int MAX_PARTICIPATION_ATTEMPTS = 5;
+
+    private static final long RETRY_BACKOFF_MS = 10;
+
+    private static final String INSERT_PARTICIPATION = "INSERT INTO PARTICIPATE (session_id, user_id) VALUES (?, ?)";
+
+    /**
+     * Inserts nothing when the session or the user doesn't exist, or when the
+     * user already participates; a concurrent duplicate is rejected by the
+     * (session_id, user_id) unique key. Parameters: session, user, session, user.
+     */
+    static final String ADD_PARTICIPANT = "INSERT INTO PARTICIPATE (session_id, user_id)"
+            + " SELECT s.id, u.id FROM SESSIONS s, USERS u WHERE s.id = ? AND u.id = ?"
+            + " AND u.deleted_at IS NULL"
+            + " AND NOT EXISTS (SELECT 1 FROM PARTICIPATE p WHERE p.session_id = ? AND p.user_id = ?)";
+
+    static final String REMOVE_PARTICIPANT = "DELETE FROM PARTICIPATE WHERE session_id = ? AND user_id = ?";
+
+    private static final String INCREMENT_VERSION = "UPDATE SESSIONS SET version = version + 1 WHERE id = ?";
+
+    private static final int BATCH_SIZE = 100;
+
+    public enum ParticipationOutcome {
+        ENROLLED,
+        UNKNOWN_SESSION,
+        UNKNOWN_USER,
+        ALREADY_PARTICIPATING
+    }
+
+    @lombok.Value
+    public static class Participation {
+        Long sessionId;
+        Long userId;
+    }
+
     private final SessionRepository sessionRepository;
 
     private final UserRepository userRepository;
 
-    public SessionService(SessionRepository sessionRepository, UserRepository userRepository) {
+    private final SessionCache sessionCache;
+
+    private final SessionMapper sessionMapper;
+
+    private final EntityManager entityManager;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public SessionService(SessionRepository sessionRepository,
+                          UserRepository userRepository,
+                          SessionCache sessionCache,
+                          SessionMapper sessionMapper,
+                          EntityManager entityManager,
+                          JdbcTemplate jdbcTemplate,
+                          PlatformTransactionManager transactionManager) {
         this.sessionRepository = sessionRepository;
         this.userRepository = userRepository;
+        this.sessionCache = sessionCache;
+        this.sessionMapper = sessionMapper;
+        this.entityManager = entityManager;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     public Session create(Session session) {
-        return this.sessionRepository.save(session);
+        Session created = this.sessionRepository.save(session);
+        this.sessionCache.evict(created.getId());
+        return created;
     }
 
     public void delete(Long id) {
         this.sessionRepository.deleteById(id);
+        this.sessionCache.evict(id);
     }
 
+    @Transactional(readOnly = true)
     public List<Session> findAll() {
         return this.sessionRepository.findAll();
     }
 
+    /**
+     * Returns a page of sessions ordered by date then id, starting right after
+     * the given cursor position, or at the given start date without cursor.
+     *
+     * @param from      sessions before this date are skipped, may be null.
+     * @param to        sessions at or after this date are skipped, may be null.
+     * @param afterDate date of the last session of the previous page, may be null.
+     * @param afterId   id of the last session of the previous page, may be null.
+     * @param size      maximum number of sessions returned.
+     * @return the DTOs of the sessions of the page.
+     */
+    @Transactional(readOnly = true)
+    public List<SessionDto> findPage(Date from, Date to, Date afterDate, Long afterId, int size) {
+        Date start = from != null ? from : new Date(0);
+        if (afterDate == null || afterDate.before(start)) {
+            // Ids are positive, so this starts the page at the first session on the start date.
+            afterDate = start;
+            afterId = 0L;
+        }
+
+        return toDto(this.sessionRepository.findPageAfter(afterDate, afterId, to != null ? to : END_OF_TIME,
+                PageRequest.of(0, size)));
+    }
+
+    /**
+     * Reads the tag of the page findPage returns for the same arguments, from the
+     * ids and stored versions of its sessions only. Every write to a session
+     * bumps its version, so the tag changes with the page, whatever the instance
+     * that made the write.
+     *
+     * @return the tag, equal to pageTag of the page's DTOs.
+     */
+    @Transactional(readOnly = true)
+    public String findPageTag(Date from, Date to, Date afterDate, Long afterId, int size) {
+        Date start = from != null ? from : new Date(0);
+        if (afterDate == null || afterDate.before(start)) {
+            afterDate = start;
+            afterId = 0L;
+        }
+
+        StringBuilder versions = new StringBuilder();
+        for (Object[] row : this.sessionRepository.findPageVersionsAfter(afterDate, afterId,
+                to != null ? to : END_OF_TIME, PageRequest.of(0, size))) {
+            versions.append(row[0]).append(':').append(row[1]).append(';');
+        }
+        return DigestUtils.md5DigestAsHex(versions.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return the tag of the given page, see findPageTag.
+     */
+    public static String pageTag(List<SessionDto> sessions) {
+        StringBuilder versions = new StringBuilder();
+        for (SessionDto session : sessions) {
+            versions.append(session.getId()).append(':').append(session.getVersion()).append(';');
+        }
+        return DigestUtils.md5DigestAsHex(versions.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return the stored version of the session, or null if it doesn't exist.
+     */
+    @Transactional(readOnly = true)
+    public Long findVersion(Long id) {
+        return this.sessionRepository.findVersionById(id).orElse(null);
+    }
+
+    /**
+     * Reads the sessions between the given dates, ordered by date then id, and
+     * hands their DTOs over a chunk at a time. Each chunk is detached once
+     * mapped, so memory use doesn't grow with the number of sessions.
+     *
+     * @param from      sessions before this date are skipped, may be null.
+     * @param to        sessions at or after this date are skipped, may be null.
+     * @param chunkSize number of sessions per chunk.
+     * @param consumer  receives the DTOs of each chunk.
+     */
+    @Transactional(readOnly = true)
+    public void forEachChunk(Date from, Date to, int chunkSize, Consumer<List<SessionDto>> consumer) {
+        try (Stream<Session> sessions = this.sessionRepository.streamByDateRange(from != null ? from : new Date(0),
+                to != null ? to : END_OF_TIME)) {
+            List<Session> chunk = new ArrayList<>(chunkSize);
+            Iterator<Session> iterator = sessions.iterator();
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() == chunkSize || !iterator.hasNext()) {
+                    List<SessionDto> dtos = toDto(chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                    this.entityManager.clear();
+                    consumer.accept(dtos);
+                }
+            }
+        }
+    }
+
+    @Transactional(readOnly = true)
     public Session getById(Long id) {
         return this.sessionRepository.findById(id).orElse(null);
     }
 
+    /**
+     * @return the DTO of the session, or null if it doesn't exist.
+     */
+    @Transactional(readOnly = true)
+    public SessionDto getDtoById(Long id) {
+        return this.sessionRepository.findById(id)
+                .map(session -> toDto(Collections.singletonList(session)).get(0))
+                .orElse(null);
+    }
+
+    /**
+     * Saves the session over the stored one. The given version, when set, must
+     * match the stored one; without version the session is saved over whatever
+     * is stored.
+     *
+     * @throws NotFoundException                if the session doesn't exist.
+     * @throws OptimisticLockingFailureException if the given version is stale.
+     */
     public Session update(Long id, Session session) {
         session.setId(id);
-        return this.sessionRepository.save(session);
+        if (session.getVersion() == null) {
+            session.setVersion(this.sessionRepository.findVersionById(id).orElseThrow(NotFoundException::new));
+        }
+        Session updated = this.sessionRepository.save(session);
+        this.sessionCache.evict(id);
+        return updated;
     }
 
+    /**
+     * Adds the user to the session's participants with a single insert, whatever
+     * the number of participants, and bumps the session version. The insert
+     * goes through JDBC, like participateAll's, as a native query run by
+     * Hibernate would evict the whole second-level and query caches.
+     *
+     * @throws NotFoundException   if the session or the user doesn't exist.
+     * @throws BadRequestException if the user already participates.
+     */
     public void participate(Long id, Long userId) {
-        Session session = this.sessionRepository.findById(id).orElse(null);
-        User user = this.userRepository.findById(userId).orElse(null);
-        if (session == null || user == null) {
-            throw new NotFoundException();
+        int inserted;
+        try {
+            inserted = withRetry(() -> this.transactionTemplate.execute(status -> {
+                int count = this.jdbcTemplate.update(ADD_PARTICIPANT, id, userId, id, userId);
+                if (count > 0) {
+                    this.sessionRepository.incrementVersion(id);
+                    this.sessionCache.evict(id);
+                }
+                return count;
+            }));
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent request added the same participant first.
+            throw new BadRequestException();
         }
 
-        boolean alreadyParticipate = session.getUsers().stream().anyMatch(o -> o.getId().equals(userId));
-        if(alreadyParticipate) {
+        if (inserted == 0) {
+            if (!this.sessionRepository.existsById(id) || !this.userRepository.existsById(userId)) {
+                throw new NotFoundException();
+            }
             throw new BadRequestException();
         }
+    }
 
-        session.getUsers().add(user);
+    /**
+     * Removes the user from the session's participants with a single delete,
+     * whatever the number of participants, and bumps the session version. The
+     * delete goes through JDBC too, see participate.
+     *
+     * @throws NotFoundException   if the session doesn't exist.
+     * @throws BadRequestException if the user doesn't participate.
+     */
+    public void noLongerParticipate(Long id, Long userId) {
+        int deleted = withRetry(() -> this.transactionTemplate.execute(status -> {
+            int count = this.jdbcTemplate.update(REMOVE_PARTICIPANT, id, userId);
+            if (count > 0) {
+                this.sessionRepository.incrementVersion(id);
+                this.sessionCache.evict(id);
+            }
+            return count;
+        }));
 
-        this.sessionRepository.save(session);
+        if (deleted == 0) {
+            if (!this.sessionRepository.existsById(id)) {
+                throw new NotFoundException();
+            }
+            throw new BadRequestException();
+        }
     }
 
-    public void noLongerParticipate(Long id, Long userId) {
-        Session session = this.sessionRepository.findById(id).orElse(null);
-        if (session == null) {
-            throw new NotFoundException();
+    /**
+     * Enrolls many users in many sessions at once. Unknown sessions and users and
+     * existing participations are found with three set-based queries, then the
+     * new participations are inserted in JDBC batches within one transaction. A
+     * batch hitting the unique key, e.g. because of a concurrent join, is
+     * replayed pair by pair.
+     *
+     * @param participations (session, user) pairs to enroll.
+     * @return for each given pair, in order, whether it has been enrolled or why not.
+     */
+    public List<ParticipationOutcome> participateAll(List<Participation> participations) {
+        Set<Long> sessionIds = this.sessionRepository.findExistingIds(participations.stream()
+                .map(Participation::getSessionId).collect(Collectors.toSet()));
+        Set<Long> userIds = this.userRepository.findExistingIds(participations.stream()
+                .map(Participation::getUserId).collect(Collectors.toSet()));
+
+        Set<Participation> taken = new HashSet<>();
+        if (!sessionIds.isEmpty() && !userIds.isEmpty()) {
+            for (Object[] row : this.sessionRepository.findParticipations(sessionIds, userIds)) {
+                taken.add(new Participation(((Number) row[0]).longValue(), ((Number) row[1]).longValue()));
+            }
         }
 
-        boolean alreadyParticipate = session.getUsers().stream().anyMatch(o -> o.getId().equals(userId));
-        if(!alreadyParticipate) {
-            throw new BadRequestException();
+        List<ParticipationOutcome> outcomes = new ArrayList<>(participations.size());
+        List<Participation> toInsert = new ArrayList<>();
+        for (Participation participation : participations) {
+            if (!sessionIds.contains(participation.getSessionId())) {
+                outcomes.add(ParticipationOutcome.UNKNOWN_SESSION);
+            } else if (!userIds.contains(participation.getUserId())) {
+                outcomes.add(ParticipationOutcome.UNKNOWN_USER);
+            } else if (!taken.add(participation)) {
+                outcomes.add(ParticipationOutcome.ALREADY_PARTICIPATING);
+            } else {
+                outcomes.add(ParticipationOutcome.ENROLLED);
+                toInsert.add(participation);
+            }
+        }
+
+        if (!toInsert.isEmpty()) {
+            Map<Participation, ParticipationOutcome> rejected = insertAll(toInsert);
+            for (int i = 0; i < participations.size(); i++) {
+                if (outcomes.get(i) == ParticipationOutcome.ENROLLED) {
+                    outcomes.set(i, rejected.getOrDefault(participations.get(i), ParticipationOutcome.ENROLLED));
+                }
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * @return the pairs that couldn't be enrolled, with the reason.
+     */
+    private Map<Participation, ParticipationOutcome> insertAll(List<Participation> participations) {
+        List<Long> sessionIds = participations.stream().map(Participation::getSessionId).distinct()
+                .collect(Collectors.toList());
+        try {
+            withRetry(() -> this.transactionTemplate.execute(status -> {
+                this.jdbcTemplate.batchUpdate(INSERT_PARTICIPATION, participations, BATCH_SIZE, (ps, participation) -> {
+                    ps.setLong(1, participation.getSessionId());
+                    ps.setLong(2, participation.getUserId());
+                });
+                this.jdbcTemplate.batchUpdate(INCREMENT_VERSION, sessionIds, BATCH_SIZE,
+                        (ps, sessionId) -> ps.setLong(1, sessionId));
+                sessionIds.forEach(this.sessionCache::evict);
+                return participations.size();
+            }));
+            return Collections.emptyMap();
+        } catch (DataIntegrityViolationException e) {
+            Map<Participation, ParticipationOutcome> rejected = new HashMap<>();
+            for (Participation participation : participations) {
+                try {
+                    participate(participation.getSessionId(), participation.getUserId());
+                } catch (BadRequestException alreadyParticipating) {
+                    rejected.put(participation, ParticipationOutcome.ALREADY_PARTICIPATING);
+                } catch (NotFoundException notFound) {
+                    // Deleted in the meantime.
+                    rejected.put(participation, this.sessionRepository.existsById(participation.getSessionId())
+                            ? ParticipationOutcome.UNKNOWN_USER : ParticipationOutcome.UNKNOWN_SESSION);
+                }
+            }
+            return rejected;
+        }
+    }
+
+    /**
+     * Maps the sessions with their participants' ids, read from PARTICIPATE
+     * for every session at once, so that no user is ever loaded.
+     */
+    private List<SessionDto> toDto(List<Session> sessions) {
+        if (sessions.isEmpty()) {
+            return Collections.emptyList();
         }
 
-        session.setUsers(session.getUsers().stream().filter(user -> !user.getId().equals(userId)).collect(Collectors.toList()));
+        Map<Long, List<Long>> userIds = new HashMap<>();
+        for (Object[] row : this.sessionRepository.findParticipants(sessions.stream().map(Session::getId)
+                .collect(Collectors.toList()))) {
+            userIds.computeIfAbsent(((Number) row[0]).longValue(), id -> new ArrayList<>())
+                    .add(((Number) row[1]).longValue());
+        }
 
-        this.sessionRepository.save(session);
+        List<SessionDto> dtos = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            dtos.add(this.sessionMapper.toDto(session, userIds.getOrDefault(session.getId(), new ArrayList<>())));
+        }
+        return dtos;
+    }
+
+    /**
+     * Runs the transaction again, after a growing pause, when it failed on a lock
+     * or version conflict with a concurrent one, up to MAX_PARTICIPATION_ATTEMPTS
+     * times.
+     */
+    private <T> T withRetry(Supplier<T> transaction) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transaction.get();
+            } catch (ConcurrencyFailureException e) {
+                if (attempt >= MAX_PARTICIPATION_ATTEMPTS) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MS * attempt + ThreadLocalRandom.current().nextLong(RETRY_BACKOFF_MS));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,180 @@
+package com.openclassrooms.starterjwt.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.openclassrooms.starterjwt.dto.TeacherDto;
+import com.openclassrooms.starterjwt.mapper.TeacherMapper;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.DigestUtils;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Snapshot of the list of teachers, mapped and encoded as JSON, plain and
+ * gzipped, so that serving it is a copy of bytes. It is dropped once a write
+ * to a teacher is committed, rebuilt on the next read, and checked against the
+ * database on a schedule for changes made outside the application, which are
+ * thus served within oc.app.teacherCatalogue.refreshMs.
+ */
+@Component
+public class TeacherCatalogue {
+    private final TeacherService teacherService;
+
+    private final TeacherMapper teacherMapper;
+
+    private final ObjectMapper objectMapper;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public TeacherCatalogue(TeacherService teacherService,
+                            TeacherMapper teacherMapper,
+                            ObjectMapper objectMapper) {
+        this.teacherService = teacherService;
+        this.teacherMapper = teacherMapper;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Immutable state of the catalogue. The arrays must not be modified.
+     */
+    @lombok.Value
+    public static class Snapshot {
+        /**
+         * Tag that changes whenever the list of teachers does, only telling when
+         * to rebuild: it is too coarse to tell two lists apart.
+         */
+        String version;
+        /**
+         * MD5 digest of the JSON, in hex, which identifies the list served.
+         */
+        String digest;
+        List<TeacherDto> teachers;
+        byte[] json;
+        byte[] gzippedJson;
+    }
+
+    /**
+     * @return the current snapshot, built if there is none.
+     */
+    public Snapshot get() {
+        Snapshot current = this.snapshot.get();
+        return current != null ? current : refresh();
+    }
+
+    /**
+     * Rebuilds the snapshot if the teachers changed since it was built.
+     *
+     * @return the up to date snapshot.
+     */
+    public synchronized Snapshot refresh() {
+        long invalidationsBeforeLoad = this.invalidations.get();
+        // Read before the teachers, so that a concurrent write can only make it older than them.
+        String version = this.teacherService.catalogueVersion();
+
+        Snapshot current = this.snapshot.get();
+        if (current != null && Objects.equals(current.getVersion(), version)) {
+            return current;
+        }
+
+        Snapshot rebuilt = build(version);
+        // Not kept if a write was committed meanwhile, the next read rebuilds it.
+        if (this.invalidations.get() == invalidationsBeforeLoad) {
+            this.snapshot.set(rebuilt);
+        }
+        return rebuilt;
+    }
+
+    /**
+     * Picks up the changes made outside the application. They are invisible to
+     * the second-level and query caches which refresh reads through, so the
+     * table is checked first, bypassing them.
+     */
+    @Scheduled(fixedDelayString = "${oc.app.teacherCatalogue.refreshMs:60000}",
+            initialDelayString = "${oc.app.teacherCatalogue.refreshMs:60000}")
+    public void scheduledRefresh() {
+        this.teacherService.evictIfStale();
+        refresh();
+    }
+
+    /**
+     * Drops the snapshot, right away or, within a transaction, once it is
+     * committed.
+     */
+    public void invalidate() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    doInvalidate();
+                }
+            });
+        } else {
+            doInvalidate();
+        }
+    }
+
+    private void doInvalidate() {
+        this.invalidations.incrementAndGet();
+        this.snapshot.set(null);
+    }
+
+    private Snapshot build(String version) {
+        List<TeacherDto> teachers = Collections.unmodifiableList(
+                this.teacherMapper.toDto(this.teacherService.findAll()));
+        try {
+            byte[] json = this.objectMapper.writeValueAsBytes(teachers);
+            return new Snapshot(version, DigestUtils.md5DigestAsHex(json), teachers, json, gzip(json));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Teachers could not be serialized", e);
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Invalidates the catalogue whenever a teacher is written. The catalogue is
+     * looked up lazily, as listeners are created with the persistence unit.
+     */
+    public static class TeacherListener {
+        private final ObjectProvider<TeacherCatalogue> teacherCatalogue;
+
+        public TeacherListener(ObjectProvider<TeacherCatalogue> teacherCatalogue) {
+            this.teacherCatalogue = teacherCatalogue;
+        }
+
+        @PostPersist
+        @PostUpdate
+        @PostRemove
+        public void teacherWritten(Object teacher) {
+            TeacherCatalogue catalogue = this.teacherCatalogue.getIfAvailable();
+            if (catalogue != null) {
+                catalogue.invalidate();
+            }
+        }
+    }
+}
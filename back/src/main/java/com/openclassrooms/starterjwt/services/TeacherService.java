@@ -2,22 +2,79 @@ package com.openclassrooms.starterjwt.services;
 
 import com.openclassrooms.starterjwt.models.Teacher;
 import com.openclassrooms.starterjwt.repository.TeacherRepository;
+import org.hibernate.SessionFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.List;
 
 @Service
 public class TeacherService {
     private final TeacherRepository teacherRepository;
 
-    public TeacherService(TeacherRepository teacherRepository) {
+    private final EntityManagerFactory entityManagerFactory;
+
+    public TeacherService(TeacherRepository teacherRepository,
+                          EntityManagerFactory entityManagerFactory) {
         this.teacherRepository = teacherRepository;
+        this.entityManagerFactory = entityManagerFactory;
     }
 
+    @Transactional(readOnly = true)
     public List<Teacher> findAll() {
         return this.teacherRepository.findAll();
     }
 
+    /**
+     * Computed from the list of teachers, which is served by the query cache
+     * until the next write to the table.
+     *
+     * @return a tag that changes whenever the list of teachers does.
+     */
+    @Transactional(readOnly = true)
+    public String catalogueVersion() {
+        List<Teacher> teachers = findAll();
+
+        long idSum = 0;
+        LocalDateTime lastUpdate = null;
+        for (Teacher teacher : teachers) {
+            idSum += teacher.getId();
+            if (teacher.getUpdatedAt() != null && (lastUpdate == null || teacher.getUpdatedAt().isAfter(lastUpdate))) {
+                lastUpdate = teacher.getUpdatedAt();
+            }
+        }
+        return version(teachers.size(), idSum, lastUpdate);
+    }
+
+    /**
+     * Compares the cached teachers with the table, summed up without going
+     * through the caches, and evicts them when they differ: the caches only
+     * see the writes made through the application.
+     *
+     * @return whether the cached teachers were out of date.
+     */
+    @Transactional(readOnly = true)
+    public boolean evictIfStale() {
+        TeacherRepository.CatalogueVersion stored = this.teacherRepository.findCatalogueVersion();
+        String storedVersion = version(stored.getCount(), stored.getIdSum() != null ? stored.getIdSum() : 0,
+                stored.getLastUpdate());
+        if (storedVersion.equals(catalogueVersion())) {
+            return false;
+        }
+
+        this.entityManagerFactory.getCache().evict(Teacher.class);
+        this.entityManagerFactory.unwrap(SessionFactory.class).getCache().evictDefaultQueryRegion();
+        return true;
+    }
+
+    private static String version(long count, long idSum, LocalDateTime lastUpdate) {
+        return count + "-" + idSum + "-" + (lastUpdate != null ? lastUpdate.toEpochSecond(ZoneOffset.UTC) : 0);
+    }
+
+    @Transactional(readOnly = true)
     public Teacher findById(Long id) {
         return this.teacherRepository.findById(id).orElse(null);
     }
@@ -0,0 +1,187 @@
+package com.openclassrooms.starterjwt.services;
+
+import com.openclassrooms.starterjwt.models.UserDeletion;
+import com.openclassrooms.starterjwt.repository.UserDeletionRepository;
+import com.openclassrooms.starterjwt.security.jwt.JwtRevocationRegistry;
+import com.openclassrooms.starterjwt.security.services.UserDetailsCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Purges the users marked as deleted: their participations are removed a
+ * bounded batch per transaction, recording the progress on the job, then the
+ * user row itself. A job that fails is retried on the next runs, up to
+ * oc.app.userDeletion.maxAttempts times, then marked as failed.
+ */
+@Component
+public class UserDeletionWorker {
+    private static final Logger logger = LoggerFactory.getLogger(UserDeletionWorker.class);
+
+    private static final String SELECT_PARTICIPATIONS =
+            "SELECT session_id FROM PARTICIPATE WHERE user_id = ? ORDER BY session_id LIMIT ?";
+
+    private static final String DELETE_PARTICIPATION = "DELETE FROM PARTICIPATE WHERE session_id = ? AND user_id = ?";
+
+    private static final String INCREMENT_VERSION = "UPDATE SESSIONS SET version = version + 1 WHERE id = ?";
+
+    private static final String DELETE_USER = "DELETE FROM USERS WHERE id = ? AND deleted_at IS NOT NULL";
+
+    private final UserDeletionRepository userDeletionRepository;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final SessionCache sessionCache;
+
+    private final JwtRevocationRegistry jwtRevocationRegistry;
+
+    private final UserDetailsCache userDetailsCache;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int batchSize;
+
+    private final int maxAttempts;
+
+    private final Counter purgedParticipations;
+
+    private final Counter purgedUsers;
+
+    private final Counter failedPurges;
+
+    public UserDeletionWorker(UserDeletionRepository userDeletionRepository,
+                              JdbcTemplate jdbcTemplate,
+                              SessionCache sessionCache,
+                              JwtRevocationRegistry jwtRevocationRegistry,
+                              UserDetailsCache userDetailsCache,
+                              PlatformTransactionManager transactionManager,
+                              MeterRegistry meterRegistry,
+                              @Value("${oc.app.userDeletion.batchSize:100}") int batchSize,
+                              @Value("${oc.app.userDeletion.maxAttempts:5}") int maxAttempts) {
+        this.userDeletionRepository = userDeletionRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.sessionCache = sessionCache;
+        this.jwtRevocationRegistry = jwtRevocationRegistry;
+        this.userDetailsCache = userDetailsCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.purgedParticipations = Counter.builder("users.deletion.participations")
+                .description("Participations purged with their deleted user")
+                .register(meterRegistry);
+        this.purgedUsers = Counter.builder("users.deletion.purged")
+                .description("Deleted users purged")
+                .register(meterRegistry);
+        this.failedPurges = Counter.builder("users.deletion.failed")
+                .description("Purges given up after too many failed attempts")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Tries every pending deletion once, oldest first. A failing job doesn't
+     * hold back the ones after it.
+     */
+    @Scheduled(fixedDelayString = "${oc.app.userDeletion.pollMs:2000}",
+            initialDelayString = "${oc.app.userDeletion.pollMs:2000}")
+    public void purgePending() {
+        List<UserDeletion> deletions;
+        long lastId = 0;
+        do {
+            deletions = this.userDeletionRepository.findTop100ByStatusAndIdGreaterThanOrderByIdAsc(
+                    UserDeletion.Status.PENDING, lastId);
+            for (UserDeletion deletion : deletions) {
+                lastId = deletion.getId();
+                try {
+                    purge(deletion);
+                } catch (RuntimeException e) {
+                    recordFailure(deletion.getId(), e);
+                }
+            }
+        } while (deletions.size() == 100);
+    }
+
+    /**
+     * Counts the failed attempt on the stored job, reloaded as the failure may
+     * have left the given one ahead of the database, and gives up on the job
+     * after maxAttempts failures.
+     */
+    private void recordFailure(Long jobId, RuntimeException failure) {
+        UserDeletion deletion = this.transactionTemplate.execute(status -> this.userDeletionRepository.findById(jobId)
+                .map(job -> {
+                    job.setAttempts(job.getAttempts() + 1);
+                    if (job.getAttempts() >= this.maxAttempts) {
+                        job.setStatus(UserDeletion.Status.FAILED);
+                    }
+                    return job;
+                }).orElse(null));
+        if (deletion == null) {
+            return;
+        }
+
+        if (deletion.getStatus() == UserDeletion.Status.FAILED) {
+            this.failedPurges.increment();
+            logger.error("Purge of user {} failed {} times, job {} given up", deletion.getUserId(),
+                    deletion.getAttempts(), jobId, failure);
+        } else {
+            logger.warn("Purge of user {} failed, job {} will be retried", deletion.getUserId(), jobId, failure);
+        }
+    }
+
+    private void purge(UserDeletion deletion) {
+        Long userId = deletion.getUserId();
+        int purged;
+        do {
+            purged = this.transactionTemplate.execute(status -> {
+                int count = purgeParticipations(userId);
+                deletion.setPurgedParticipations(deletion.getPurgedParticipations() + count);
+                this.userDeletionRepository.save(deletion);
+                return count;
+            });
+            this.purgedParticipations.increment(purged);
+            logger.debug("Job {}: {} participations of user {} purged", deletion.getId(),
+                    deletion.getPurgedParticipations(), userId);
+        } while (purged == this.batchSize);
+
+        this.transactionTemplate.executeWithoutResult(status -> {
+            this.jdbcTemplate.update(DELETE_USER, userId);
+            this.userDeletionRepository.save(deletion.setStatus(UserDeletion.Status.DONE));
+        });
+        // Again, in case a principal got cached since the user was marked.
+        this.jwtRevocationRegistry.revokeDeletedUser(userId);
+        this.userDetailsCache.evictUser(userId);
+        this.purgedUsers.increment();
+        logger.info("Job {}: user {} purged with {} participations", deletion.getId(), userId,
+                deletion.getPurgedParticipations());
+    }
+
+    /**
+     * Removes the next batch of participations of the user, through the
+     * (user_id, session_id) index, and bumps the versions of their sessions.
+     *
+     * @return the number of participations removed.
+     */
+    private int purgeParticipations(Long userId) {
+        List<Long> sessionIds = this.jdbcTemplate.queryForList(SELECT_PARTICIPATIONS, Long.class, userId,
+                this.batchSize);
+        if (sessionIds.isEmpty()) {
+            return 0;
+        }
+
+        this.jdbcTemplate.batchUpdate(DELETE_PARTICIPATION, sessionIds.stream()
+                .map(sessionId -> new Object[]{sessionId, userId}).collect(Collectors.toList()));
+        this.jdbcTemplate.batchUpdate(INCREMENT_VERSION, sessionIds.stream()
+                .map(sessionId -> new Object[]{sessionId}).collect(Collectors.toList()));
+        this.sessionCache.evictAll();
+        return sessionIds.size();
+    }
+}
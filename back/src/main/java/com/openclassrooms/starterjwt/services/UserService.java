@@ -1,22 +1,207 @@
 package com.openclassrooms.starterjwt.services;
 
+import com.openclassrooms.starterjwt.exception.BadRequestException;
+import com.openclassrooms.starterjwt.exception.NotFoundException;
 import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.models.UserDeletion;
+import com.openclassrooms.starterjwt.repository.UserDeletionRepository;
 import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.security.jwt.JwtRevocationRegistry;
+import com.openclassrooms.starterjwt.security.services.UserDetailsCache;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class UserService {
+    private static final String INSERT_USER = "INSERT INTO USERS "
+            + "(email, last_name, first_name, password, admin, created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final String EMAIL_UNIQUE_KEY = "UK_USERS_EMAIL";
+
     private final UserRepository userRepository;
 
-    public UserService(UserRepository userRepository) {
+    private final UserDeletionRepository userDeletionRepository;
+
+    private final JwtRevocationRegistry jwtRevocationRegistry;
+
+    private final UserDetailsCache userDetailsCache;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public UserService(UserRepository userRepository,
+                       UserDeletionRepository userDeletionRepository,
+                       JwtRevocationRegistry jwtRevocationRegistry,
+                       UserDetailsCache userDetailsCache,
+                       JdbcTemplate jdbcTemplate,
+                       PlatformTransactionManager transactionManager) {
         this.userRepository = userRepository;
+        this.userDeletionRepository = userDeletionRepository;
+        this.jwtRevocationRegistry = jwtRevocationRegistry;
+        this.userDetailsCache = userDetailsCache;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Marks the user as deleted, which hides it from every query and revokes its
+     * tokens at once, and queues its purge, done by {@link UserDeletionWorker}.
+     * The other nodes revoke the tokens from the stored deletion, see
+     * {@link JwtRevocationRegistry}.
+     *
+     * @param id id of the user.
+     * @return the purge job.
+     * @throws NotFoundException if the user doesn't exist or is already deleted.
+     */
+    public UserDeletion delete(Long id) {
+        UserDeletion deletion = this.transactionTemplate.execute(status -> {
+            if (this.userRepository.markDeleted(id, LocalDateTime.now()) == 0) {
+                throw new NotFoundException();
+            }
+            return this.userDeletionRepository.save(UserDeletion.builder()
+                    .userId(id)
+                    .status(UserDeletion.Status.PENDING)
+                    .build());
+        });
+        this.jwtRevocationRegistry.revokeDeletedUser(id);
+        this.userDetailsCache.evictUser(id);
+        return deletion;
     }
 
-    public void delete(Long id) {
-        this.userRepository.deleteById(id);
+    /**
+     * @param id id of the purge job.
+     * @return the job, or null if it doesn't exist.
+     */
+    public UserDeletion findDeletion(Long id) {
+        return this.userDeletionRepository.findById(id).orElse(null);
     }
 
+    @Transactional(readOnly = true)
     public User findById(Long id) {
         return this.userRepository.findById(id).orElse(null);
     }
+
+    /**
+     * Loads the users with the given ids in a single query.
+     *
+     * @param ids ids of the users, may be null.
+     * @return the users, in the order of the given ids, without duplicates.
+     * @throws BadRequestException if some ids don't match any user.
+     */
+    public List<User> findAllById(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Set<Long> uniqueIds = new LinkedHashSet<>(ids);
+        uniqueIds.remove(null);
+        Map<Long, User> usersById = this.userRepository.findAllById(uniqueIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+
+        List<Long> unknownIds = uniqueIds.stream().filter(id -> !usersById.containsKey(id)).collect(Collectors.toList());
+        if (!unknownIds.isEmpty()) {
+            throw new BadRequestException("Error: Unknown user ids " + unknownIds);
+        }
+
+        return uniqueIds.stream().map(usersById::get).collect(Collectors.toList());
+    }
+
+    /**
+     * Registers many users at once: emails already taken are found with a single
+     * query and the others are inserted in JDBC batches. A batch hitting the
+     * unique email constraint, e.g. because of a concurrent signup, is replayed
+     * row by row.
+     *
+     * @param users users to create, with encoded passwords.
+     * @return for each given user, in order, whether it has been created.
+     */
+    public List<Boolean> createAll(List<User> users) {
+        Set<String> taken = new HashSet<>(this.userRepository.findExistingEmails(
+                users.stream().map(User::getEmail).collect(Collectors.toSet())));
+
+        List<User> toInsert = new ArrayList<>();
+        for (User user : users) {
+            if (taken.add(user.getEmail())) {
+                toInsert.add(user);
+            }
+        }
+
+        Set<String> created = new HashSet<>();
+        for (int from = 0; from < toInsert.size(); from += BATCH_SIZE) {
+            List<User> batch = toInsert.subList(from, Math.min(from + BATCH_SIZE, toInsert.size()));
+            created.addAll(insertBatch(batch));
+        }
+        created.forEach(this.userDetailsCache::evict);
+
+        List<Boolean> results = new ArrayList<>(users.size());
+        for (User user : users) {
+            results.add(created.remove(user.getEmail()));
+        }
+        return results;
+    }
+
+    private Set<String> insertBatch(List<User> batch) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        try {
+            this.transactionTemplate.executeWithoutResult(status -> this.jdbcTemplate.batchUpdate(INSERT_USER, batch,
+                    batch.size(), (ps, user) -> {
+                        ps.setString(1, user.getEmail());
+                        ps.setString(2, user.getLastName());
+                        ps.setString(3, user.getFirstName());
+                        ps.setString(4, user.getPassword());
+                        ps.setBoolean(5, user.isAdmin());
+                        ps.setTimestamp(6, now);
+                        ps.setTimestamp(7, now);
+                    }));
+            return batch.stream().map(User::getEmail).collect(Collectors.toSet());
+        } catch (DataIntegrityViolationException e) {
+            Set<String> created = new HashSet<>();
+            for (User user : batch) {
+                try {
+                    this.jdbcTemplate.update(INSERT_USER, user.getEmail(), user.getLastName(), user.getFirstName(),
+                            user.getPassword(), user.isAdmin(), now, now);
+                    created.add(user.getEmail());
+                } catch (DataIntegrityViolationException rowFailure) {
+                    if (!isEmailTaken(rowFailure)) {
+                        throw rowFailure;
+                    }
+                    // Email taken in the meantime.
+                }
+            }
+            return created;
+        }
+    }
+
+    /**
+     * Tells whether the violation is the one of the unique key on USERS.email,
+     * whose name the database reports in its message.
+     */
+    public static boolean isEmailTaken(DataIntegrityViolationException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage();
+            if (message != null && message.toUpperCase(Locale.ROOT).contains(EMAIL_UNIQUE_KEY)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
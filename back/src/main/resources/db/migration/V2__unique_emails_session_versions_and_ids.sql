@@ -0,0 +1,13 @@
+-- Signups rely on the database to refuse a taken email.
+ALTER TABLE USERS ADD CONSTRAINT UK_USERS_EMAIL UNIQUE (email);
+
+-- Optimistic locking of sessions.
+ALTER TABLE SESSIONS ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+
+-- Backs the Session id generator, which reserves ids 100 at a time, starting
+-- after the ids already assigned by AUTO_INCREMENT.
+CREATE TABLE SESSIONS_SEQ (
+  next_val BIGINT
+);
+
+INSERT INTO SESSIONS_SEQ (next_val) SELECT COALESCE(MAX(id), 0) + 1 FROM SESSIONS;
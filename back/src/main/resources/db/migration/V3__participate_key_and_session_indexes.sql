@@ -0,0 +1,25 @@
+-- Participations recorded twice before the key existed are kept once. The
+-- table is created before being filled, as CREATE TABLE ... SELECT isn't
+-- allowed when GTID consistency is enforced.
+CREATE TABLE PARTICIPATE_DEDUP (
+  user_id INT NOT NULL,
+  session_id INT NOT NULL
+);
+INSERT INTO PARTICIPATE_DEDUP (user_id, session_id)
+  SELECT DISTINCT user_id, session_id FROM PARTICIPATE WHERE user_id IS NOT NULL AND session_id IS NOT NULL;
+DELETE FROM PARTICIPATE;
+INSERT INTO PARTICIPATE (user_id, session_id) SELECT user_id, session_id FROM PARTICIPATE_DEDUP;
+DROP TABLE PARTICIPATE_DEDUP;
+
+-- Joining, leaving and listing the participants of a session are lookups on
+-- (session_id, user_id), which the key also keeps unique.
+ALTER TABLE PARTICIPATE MODIFY user_id INT NOT NULL;
+ALTER TABLE PARTICIPATE MODIFY session_id INT NOT NULL;
+ALTER TABLE PARTICIPATE ADD PRIMARY KEY (session_id, user_id);
+
+-- The sessions of a user, e.g. when deleting the user.
+CREATE INDEX IDX_PARTICIPATE_USER_SESSION ON PARTICIPATE (user_id, session_id);
+
+-- Listings ordered by date then id, and the sessions of a teacher by date.
+CREATE INDEX IDX_SESSIONS_DATE ON SESSIONS (date);
+CREATE INDEX IDX_SESSIONS_TEACHER_DATE ON SESSIONS (teacher_id, date);
@@ -0,0 +1,13 @@
+-- Deleted users are hidden at once, then purged in the background.
+ALTER TABLE USERS ADD COLUMN deleted_at DATETIME NULL;
+
+CREATE TABLE USER_DELETIONS (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  user_id INT NOT NULL,
+  status VARCHAR(20) NOT NULL,
+  purged_participations BIGINT NOT NULL DEFAULT 0,
+  created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  updated_at DATETIME DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IDX_USER_DELETIONS_STATUS ON USER_DELETIONS (status, id);
@@ -0,0 +1,2 @@
+-- Failed purges are retried a bounded number of times, then left for an operator.
+ALTER TABLE USER_DELETIONS ADD COLUMN attempts INT NOT NULL DEFAULT 0;
@@ -0,0 +1,3 @@
+-- Token revocation looks deletions up by user, and reloads the recent ones.
+CREATE INDEX IDX_USER_DELETIONS_USER ON USER_DELETIONS (user_id);
+CREATE INDEX IDX_USER_DELETIONS_CREATED_AT ON USER_DELETIONS (created_at);
@@ -0,0 +1,133 @@
+package com.openclassrooms.starterjwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.hibernate.dialect.MySQL5InnoDBDialect;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.openclassrooms.starterjwt.repository.TeacherRepository;
+
+/**
+ * Applies the migrations to an embedded database in MySQL mode and lets
+ * Hibernate validate the entity mappings against the resulting schema: the
+ * context doesn't start if a table or column is missing or of the wrong type.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:schema-migration;MODE=MySQL;DB_CLOSE_DELAY=-1",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.jpa.hibernate.ddl-auto=validate",
+    "spring.jpa.properties.hibernate.dialect="
+        + "com.openclassrooms.starterjwt.SchemaMigrationIntegrationTest$MigratedSchemaDialect"
+})
+public class SchemaMigrationIntegrationTest {
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private TeacherRepository teacherRepository;
+
+  /**
+   * The production dialect, which also accepts the types H2 reports for the
+   * INT ids mapped to Long and for BOOLEAN columns, that MySQL reports as BIT.
+   */
+  public static class MigratedSchemaDialect extends MySQL5InnoDBDialect {
+    @Override
+    public boolean equivalentType(int typeCode1, int typeCode2) {
+      return super.equivalentType(typeCode1, typeCode2)
+          || isInteger(typeCode1) && isInteger(typeCode2)
+          || isBoolean(typeCode1) && isBoolean(typeCode2);
+    }
+
+    private static boolean isInteger(int typeCode) {
+      return typeCode == Types.INTEGER || typeCode == Types.BIGINT;
+    }
+
+    private static boolean isBoolean(int typeCode) {
+      return typeCode == Types.BOOLEAN || typeCode == Types.BIT;
+    }
+  }
+
+  /**
+   * Tests that the mappings have been validated against the migrated schema,
+   * which holds the initial data.
+   */
+  @Test
+  public void mappings_shouldMatchMigratedSchema() {
+    assertThat(teacherRepository.count()).isEqualTo(2);
+  }
+
+  /**
+   * Tests that PARTICIPATE is keyed on (session_id, user_id), which refuses a
+   * participation recorded twice.
+   */
+  @Test
+  public void participate_shouldBeKeyedOnSessionThenUser() throws SQLException {
+    List<String> primaryKey = new ArrayList<>();
+    try (Connection connection = dataSource.getConnection();
+        ResultSet columns = connection.getMetaData().getPrimaryKeys(null, null, "PARTICIPATE")) {
+      Map<Short, String> columnsBySequence = new TreeMap<>();
+      while (columns.next()) {
+        columnsBySequence.put(columns.getShort("KEY_SEQ"), columns.getString("COLUMN_NAME"));
+      }
+      primaryKey.addAll(columnsBySequence.values());
+    }
+    assertThat(primaryKey).containsExactly("SESSION_ID", "USER_ID");
+
+    jdbcTemplate.update("INSERT INTO SESSIONS (name, description, date, teacher_id) VALUES ('Yoga', 'Yoga', "
+        + "CURRENT_TIMESTAMP, 1)");
+    Long sessionId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM SESSIONS", Long.class);
+    jdbcTemplate.update("INSERT INTO PARTICIPATE (session_id, user_id) VALUES (?, 1)", sessionId);
+    assertThrows(DataIntegrityViolationException.class,
+        () -> jdbcTemplate.update("INSERT INTO PARTICIPATE (session_id, user_id) VALUES (?, 1)", sessionId));
+  }
+
+  /**
+   * Tests that the lookups by user on PARTICIPATE, and by date or by teacher
+   * then date on SESSIONS, are backed by indexes.
+   */
+  @Test
+  public void indexes_shouldCoverHotPaths() throws SQLException {
+    assertThat(indexes("PARTICIPATE")).contains(List.of("USER_ID", "SESSION_ID"));
+    assertThat(indexes("SESSIONS")).contains(List.of("DATE"), List.of("TEACHER_ID", "DATE"));
+  }
+
+  /**
+   * @return the columns of each index of the table, in order.
+   */
+  private Collection<List<String>> indexes(String table) throws SQLException {
+    Map<String, Map<Short, String>> columnsByIndex = new TreeMap<>();
+    try (Connection connection = dataSource.getConnection();
+        ResultSet columns = connection.getMetaData().getIndexInfo(null, null, table, false, false)) {
+      while (columns.next()) {
+        columnsByIndex.computeIfAbsent(columns.getString("INDEX_NAME"), name -> new TreeMap<>())
+            .put(columns.getShort("ORDINAL_POSITION"), columns.getString("COLUMN_NAME"));
+      }
+    }
+
+    List<List<String>> indexes = new ArrayList<>();
+    columnsByIndex.values().forEach(columns -> indexes.add(new ArrayList<>(columns.values())));
+    return indexes;
+  }
+}
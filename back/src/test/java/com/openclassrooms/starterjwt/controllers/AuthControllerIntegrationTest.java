@@ -1,18 +1,21 @@
 package com.openclassrooms.starterjwt.controllers;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-import java.util.Optional;
-
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -29,6 +32,8 @@ import com.openclassrooms.starterjwt.payload.response.JwtResponse;
 import com.openclassrooms.starterjwt.payload.response.MessageResponse;
 import com.openclassrooms.starterjwt.repository.UserRepository;
 import com.openclassrooms.starterjwt.security.jwt.JwtUtils;
+import com.openclassrooms.starterjwt.security.password.PasswordEncoderSaturatedException;
+import com.openclassrooms.starterjwt.security.ratelimit.LoginRateLimiter;
 import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
 
 /**
@@ -50,6 +55,9 @@ public class AuthControllerIntegrationTest {
   @MockBean
   private UserRepository userRepository;
 
+  @MockBean
+  private LoginRateLimiter loginRateLimiter;
+
   @Autowired
   private MockMvc mockMvc;
 
@@ -72,17 +80,17 @@ public class AuthControllerIntegrationTest {
 
   /**
    * Tests that authenticateUser method returns a successful response with a
-   * JwtResponse, with user existing.
+   * JwtResponse, with an admin user.
    * 
    * @throws Exception if simulated call to the end point fails.
    */
   @Test
-  public void authenticateUser_shouldSucceedRequest_whenUserExists() throws Exception {
+  public void authenticateUser_shouldSucceedRequest_withAdminUser() throws Exception {
     User user = User.builder().id(1L).firstName("John").lastName("Wick").email("john.wick@live.fr").password("password")
         .admin(true).build();
 
     UserDetailsImpl userDetails = UserDetailsImpl.builder().id(1L).firstName("John").lastName("Wick")
-        .username("john.wick@live.fr").password("password").build();
+        .username("john.wick@live.fr").admin(true).password("password").build();
 
     LoginRequest loginRequest = new LoginRequest();
     loginRequest.setEmail(user.getEmail());
@@ -95,24 +103,25 @@ public class AuthControllerIntegrationTest {
 
     when(authenticationManager.authenticate(any(UsernamePasswordAuthenticationToken.class))).thenReturn(authentication);
     when(jwtUtils.generateJwtToken(any(Authentication.class))).thenReturn("mocked-token");
-    when(userRepository.findByEmail(any(String.class))).thenReturn(Optional.of(user));
 
     mockMvc
         .perform(MockMvcRequestBuilders.post("/api/auth/login").contentType(MediaType.APPLICATION_JSON)
             .content(objectMapper.writeValueAsString(loginRequest)))
         .andExpect(status().isOk()).andExpect(content().json(objectMapper.writeValueAsString(jwtResponse)));
+
+    verifyNoInteractions(userRepository);
   }
 
   /**
    * Tests that authenticateUser method returns a successful response with a
-   * JwtResponse containing admin to false, with user not existing.
+   * JwtResponse containing admin to false, with a principal that isn't admin.
    * 
    * @throws Exception if simulated call to the end point fails.
    */
   @Test
-  public void authenticateUser_shouldSucceedRequest_whenUserDoesntExist() throws Exception {
+  public void authenticateUser_shouldSucceedRequest_withNonAdminUser() throws Exception {
     User user = User.builder().id(1L).firstName("John").lastName("Wick").email("john.wick@live.fr").password("password")
-        .admin(true).build();
+        .admin(false).build();
 
     UserDetailsImpl userDetails = UserDetailsImpl.builder().id(1L).firstName("John").lastName("Wick")
         .username("john.wick@live.fr").password("password").build();
@@ -128,7 +137,6 @@ public class AuthControllerIntegrationTest {
 
     when(authenticationManager.authenticate(any(UsernamePasswordAuthenticationToken.class))).thenReturn(authentication);
     when(jwtUtils.generateJwtToken(any(Authentication.class))).thenReturn("mocked-token");
-    when(userRepository.findByEmail(any(String.class))).thenReturn(Optional.empty());
 
     mockMvc
         .perform(MockMvcRequestBuilders.post("/api/auth/login").contentType(MediaType.APPLICATION_JSON)
@@ -144,7 +152,6 @@ public class AuthControllerIntegrationTest {
    */
   @Test
   public void registerUser_shouldSucceedRequest() throws Exception {
-    when(userRepository.existsByEmail(any(String.class))).thenReturn(false);
     when(passwordEncoder.encode(any(String.class))).thenReturn("encryptedPwd");
 
     mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/register").contentType(MediaType.APPLICATION_JSON)
@@ -160,10 +167,85 @@ public class AuthControllerIntegrationTest {
    */
   @Test
   public void registerUser_shouldReturnBadRequest_whenEmailAlreadyExists() throws Exception {
-    when(userRepository.existsByEmail(any(String.class))).thenReturn(true);
+    when(passwordEncoder.encode(any(String.class))).thenReturn("encryptedPwd");
+    when(userRepository.save(any(User.class))).thenThrow(
+        new DataIntegrityViolationException("Duplicate entry 'john.doe@live.fr' for key 'UK_USERS_EMAIL'"));
 
     mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/register").contentType(MediaType.APPLICATION_JSON)
         .content(objectMapper.writeValueAsString(signUpRequest))).andExpect(status().isBadRequest()).andExpect(
             content().json(objectMapper.writeValueAsString(new MessageResponse("Error: Email is already taken!"))));
   }
+
+  /**
+   * Tests that registerUser method reports a violation of another constraint
+   * than the email unique key with a generic message, without the database's.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  public void registerUser_shouldReturnBadRequest_whenOtherConstraintViolated() throws Exception {
+    when(passwordEncoder.encode(any(String.class))).thenReturn("encryptedPwd");
+    when(userRepository.save(any(User.class))).thenThrow(
+        new DataIntegrityViolationException("Data too long for column 'first_name'"));
+
+    mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/register").contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(signUpRequest))).andExpect(status().isBadRequest()).andExpect(
+            content().json(objectMapper.writeValueAsString(new MessageResponse("Error: Could not register user"))));
+  }
+
+  /**
+   * Tests that authenticateUser method returns a service unavailable response
+   * when password hashing is saturated.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  public void authenticateUser_shouldReturnServiceUnavailable_whenHashingSaturated() throws Exception {
+    LoginRequest loginRequest = new LoginRequest();
+    loginRequest.setEmail("john.wick@live.fr");
+    loginRequest.setPassword("password");
+
+    when(authenticationManager.authenticate(any(UsernamePasswordAuthenticationToken.class)))
+        .thenThrow(new PasswordEncoderSaturatedException());
+
+    mockMvc
+        .perform(MockMvcRequestBuilders.post("/api/auth/login").contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(loginRequest)))
+        .andExpect(status().isServiceUnavailable()).andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+  }
+
+  /**
+   * Tests that registerUser method returns a service unavailable response when
+   * password hashing is saturated.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  public void registerUser_shouldReturnServiceUnavailable_whenHashingSaturated() throws Exception {
+    when(passwordEncoder.encode(any(String.class))).thenThrow(new PasswordEncoderSaturatedException());
+
+    mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/register").contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(signUpRequest))).andExpect(status().isServiceUnavailable());
+  }
+
+  /**
+   * Tests that authenticateUser method returns a too many requests response,
+   * without authenticating, when the attempt is throttled.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  public void authenticateUser_shouldReturnTooManyRequests_whenThrottled() throws Exception {
+    LoginRequest loginRequest = new LoginRequest();
+    loginRequest.setEmail("john.wick@live.fr");
+    loginRequest.setPassword("password");
+
+    when(loginRateLimiter.tryAcquire(anyString(), anyString())).thenReturn(1500L);
+
+    mockMvc
+        .perform(MockMvcRequestBuilders.post("/api/auth/login").contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(loginRequest)))
+        .andExpect(status().isTooManyRequests()).andExpect(header().string(HttpHeaders.RETRY_AFTER, "2"));
+    verifyNoInteractions(authenticationManager);
+  }
 }
@@ -0,0 +1,121 @@
+package com.openclassrooms.starterjwt.controllers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.payload.request.LoginRequest;
+import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.security.services.UserDetailsCache;
+
+/**
+ * Counts the SQL statements issued by {@link AuthController} login against an
+ * embedded database.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:login-statements;DB_CLOSE_DELAY=-1",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.flyway.enabled=false",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+    "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@AutoConfigureMockMvc
+public class AuthControllerLoginStatementsIntegrationTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private PasswordEncoder passwordEncoder;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private UserDetailsCache userDetailsCache;
+
+  /**
+   * Stores an admin user with an encoded password before each test.
+   */
+  @BeforeEach
+  public void init() {
+    userRepository.deleteAll();
+    userDetailsCache.evict("yoga@studio.com");
+    userRepository.save(User.builder().email("yoga@studio.com").firstName("Admin").lastName("Admin")
+        .password(passwordEncoder.encode("test!1234")).admin(true).build());
+  }
+
+  /**
+   * Tests that a successful login issues exactly one SQL statement.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  public void authenticateUser_shouldIssueSingleStatement() throws Exception {
+    LoginRequest loginRequest = new LoginRequest();
+    loginRequest.setEmail("yoga@studio.com");
+    loginRequest.setPassword("test!1234");
+
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+
+    mockMvc
+        .perform(MockMvcRequestBuilders.post("/api/auth/login").contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(loginRequest)))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.admin").value(true));
+
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+  }
+
+  /**
+   * Tests that a successful login re-encodes a password stored with another
+   * BCrypt cost.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  public void authenticateUser_shouldRehashPassword_whenStoredWithOtherCost() throws Exception {
+    User user = userRepository.findByEmail("yoga@studio.com").get();
+    user.setPassword(new BCryptPasswordEncoder(4).encode("test!1234"));
+    userRepository.save(user);
+
+    LoginRequest loginRequest = new LoginRequest();
+    loginRequest.setEmail("yoga@studio.com");
+    loginRequest.setPassword("test!1234");
+
+    mockMvc
+        .perform(MockMvcRequestBuilders.post("/api/auth/login").contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(loginRequest)))
+        .andExpect(status().isOk());
+
+    String rehashed = userRepository.findByEmail("yoga@studio.com").get().getPassword();
+    assertThat(rehashed).doesNotStartWith("$2a$04$");
+    assertThat(passwordEncoder.upgradeEncoding(rehashed)).isFalse();
+    assertThat(passwordEncoder.matches("test!1234", rehashed)).isTrue();
+  }
+}
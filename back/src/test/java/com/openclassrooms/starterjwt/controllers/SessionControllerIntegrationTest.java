@@ -1,10 +1,15 @@
 package com.openclassrooms.starterjwt.controllers;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -14,15 +19,20 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.openclassrooms.starterjwt.dto.SessionDto;
+import com.openclassrooms.starterjwt.exception.BadRequestException;
 import com.openclassrooms.starterjwt.mapper.SessionMapper;
 import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.payload.response.MessageResponse;
+import com.openclassrooms.starterjwt.services.SessionCache;
 import com.openclassrooms.starterjwt.services.SessionService;
 
 /**
@@ -41,6 +51,9 @@ public class SessionControllerIntegrationTest {
   @Autowired
   private MockMvc mockMvc;
 
+  @Autowired
+  private SessionCache sessionCache;
+
   @Autowired
   private ObjectMapper objectMapper;
 
@@ -52,6 +65,7 @@ public class SessionControllerIntegrationTest {
    */
   @BeforeEach
   private void init() {
+    sessionCache.evictAll();
     session = Session.builder().id(1L).name("Session name").date(new Date()).description("Description of the session")
         .teacher(null).users(null).build();
 
@@ -62,24 +76,61 @@ public class SessionControllerIntegrationTest {
     sessionDto.setDescription("Description of the session");
     sessionDto.setTeacher_id(1L);
     sessionDto.setUsers(null);
+    sessionDto.setVersion(0L);
   }
 
   /**
-   * Tests that findAll method returns a 200 response with all the sessions.
+   * Tests that findAll method returns a 200 response with the sessions of the
+   * first page, and no cursor when the page isn't full.
    * 
    * @throws Exception if simulated call to the end point fails.
    */
   @Test
   @WithMockUser
   public void findAll_shouldSucceedRequestWithAllSessions() throws Exception {
-    List<Session> sessions = Arrays.asList(session);
     List<SessionDto> sessionDtos = Arrays.asList(sessionDto);
 
-    when(sessionService.findAll()).thenReturn(sessions);
-    when(sessionMapper.toDto(sessions)).thenReturn(sessionDtos);
+    when(sessionService.findPageTag(null, null, null, null, 50)).thenReturn(SessionService.pageTag(sessionDtos));
+    when(sessionService.findPage(null, null, null, null, 50)).thenReturn(sessionDtos);
 
     mockMvc.perform(MockMvcRequestBuilders.get("/api/session").accept(MediaType.APPLICATION_JSON))
-        .andExpect(status().isOk()).andExpect(content().json(objectMapper.writeValueAsString(sessionDtos)));
+        .andExpect(status().isOk()).andExpect(content().json(objectMapper.writeValueAsString(sessionDtos)))
+        .andExpect(header().doesNotExist(SessionController.NEXT_CURSOR_HEADER));
+  }
+
+  /**
+   * Tests that findAll method reads the cursor, caps the page size and returns
+   * the cursor of the next page when the page is full.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findAll_shouldReturnNextCursor_whenPageIsFull() throws Exception {
+    List<SessionDto> sessionDtos = Collections.nCopies(100, sessionDto);
+
+    when(sessionService.findPageTag(null, null, new Date(1000L), 3L, 100))
+        .thenReturn(SessionService.pageTag(sessionDtos));
+    when(sessionService.findPage(null, null, new Date(1000L), 3L, 100)).thenReturn(sessionDtos);
+
+    mockMvc
+        .perform(MockMvcRequestBuilders.get("/api/session").param("cursor", "1000_3").param("size", "500")
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk()).andExpect(header().string(SessionController.NEXT_CURSOR_HEADER,
+            sessionDto.getDate().getTime() + "_" + sessionDto.getId()));
+  }
+
+  /**
+   * Tests that findAll method returns a bad request response when the cursor is
+   * malformed.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findAll_shouldReturnBadRequest_whenMalformedCursor() throws Exception {
+    mockMvc.perform(MockMvcRequestBuilders.get("/api/session").param("cursor", "one").accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isBadRequest());
   }
 
   /**
@@ -93,11 +144,44 @@ public class SessionControllerIntegrationTest {
   public void findById_shouldSucceedRequestWithASession() throws Exception {
     Long id = session.getId();
 
-    when(sessionService.getById(id)).thenReturn(session);
-    when(sessionMapper.toDto(session)).thenReturn(sessionDto);
+    when(sessionService.findVersion(id)).thenReturn(0L);
+    when(sessionService.getDtoById(id)).thenReturn(sessionDto);
 
     mockMvc.perform(MockMvcRequestBuilders.get("/api/session/" + id).accept(MediaType.APPLICATION_JSON))
-        .andExpect(status().isOk()).andExpect(content().json(objectMapper.writeValueAsString(sessionDto)));
+        .andExpect(status().isOk()).andExpect(header().string(HttpHeaders.ETAG, "\"session-1-0\""))
+        .andExpect(content().json(objectMapper.writeValueAsString(sessionDto)));
+  }
+
+  /**
+   * Tests that findById method returns a 304 response while the stored version
+   * of the session is unchanged, and reloads the cached session once it has
+   * been written through another instance.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findById_shouldReloadSession_whenWrittenThroughAnotherInstance() throws Exception {
+    Long id = session.getId();
+    SessionDto updated = new SessionDto();
+    updated.setId(id);
+    updated.setName("Updated name");
+    updated.setVersion(1L);
+
+    when(sessionService.findVersion(id)).thenReturn(0L);
+    when(sessionService.getDtoById(id)).thenReturn(sessionDto);
+    mockMvc.perform(MockMvcRequestBuilders.get("/api/session/" + id).accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk());
+    mockMvc.perform(MockMvcRequestBuilders.get("/api/session/" + id).header(HttpHeaders.IF_NONE_MATCH,
+        "\"session-1-0\"").accept(MediaType.APPLICATION_JSON)).andExpect(status().isNotModified());
+
+    when(sessionService.findVersion(id)).thenReturn(1L);
+    when(sessionService.getDtoById(id)).thenReturn(updated);
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/api/session/" + id).header(HttpHeaders.IF_NONE_MATCH,
+        "\"session-1-0\"").accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk()).andExpect(header().string(HttpHeaders.ETAG, "\"session-1-1\""))
+        .andExpect(content().json(objectMapper.writeValueAsString(updated)));
   }
 
   /**
@@ -124,7 +208,7 @@ public class SessionControllerIntegrationTest {
   public void findById_shouldReturnNotFound_whenSessionDoesntExist() throws Exception {
     Long id = 2L;
 
-    when(sessionService.getById(id)).thenReturn(null);
+    when(sessionService.findVersion(id)).thenReturn(null);
 
     mockMvc.perform(MockMvcRequestBuilders.get("/api/session/" + id).accept(MediaType.APPLICATION_JSON))
         .andExpect(status().isNotFound());
@@ -166,6 +250,25 @@ public class SessionControllerIntegrationTest {
         .andExpect(status().isOk()).andExpect(content().json(objectMapper.writeValueAsString(sessionDto)));
   }
 
+  /**
+   * Tests that update method returns a conflict response when the session has
+   * been modified since the client read it.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void update_shouldReturnConflict_whenStaleVersion() throws Exception {
+    when(sessionMapper.toEntity(sessionDto)).thenReturn(session);
+    when(sessionService.update(1L, session))
+        .thenThrow(new ObjectOptimisticLockingFailureException(Session.class, 1L));
+
+    mockMvc
+        .perform(MockMvcRequestBuilders.put("/api/session/" + 1).contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(sessionDto)))
+        .andExpect(status().isConflict());
+  }
+
   /**
    * Tests that update method returns a bad request response when the given id is
    * malformed.
@@ -272,4 +375,62 @@ public class SessionControllerIntegrationTest {
         .andExpect(status().isBadRequest());
   }
 
+
+  /**
+   * Tests that create method returns a bad request response naming the unknown
+   * participants when some don't exist.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void create_shouldReturnBadRequest_whenUnknownUsers() throws Exception {
+    when(sessionMapper.toEntity(any(SessionDto.class)))
+        .thenThrow(new BadRequestException("Error: Unknown user ids [42]"));
+
+    mockMvc
+        .perform(MockMvcRequestBuilders.post("/api/session").contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(sessionDto)))
+        .andExpect(status().isBadRequest()).andExpect(content()
+            .json(objectMapper.writeValueAsString(new MessageResponse("Error: Unknown user ids [42]"))));
+  }
+
+  /**
+   * Tests that findAll method returns a 304 response, without loading the
+   * sessions, while the stored versions of the page's sessions are unchanged,
+   * and reloads the cached page once one has been written through another
+   * instance.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findAll_shouldReturnNotModified_untilASessionIsWritten() throws Exception {
+    List<SessionDto> sessionDtos = Arrays.asList(sessionDto);
+    when(sessionService.findPageTag(null, null, null, null, 50)).thenReturn(SessionService.pageTag(sessionDtos));
+    when(sessionService.findPage(null, null, null, null, 50)).thenReturn(sessionDtos);
+
+    String eTag = mockMvc.perform(MockMvcRequestBuilders.get("/api/session").accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+    mockMvc
+        .perform(MockMvcRequestBuilders.get("/api/session").header(HttpHeaders.IF_NONE_MATCH, eTag)
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isNotModified());
+    verify(sessionService, times(1)).findPage(null, null, null, null, 50);
+
+    SessionDto updated = new SessionDto();
+    updated.setId(session.getId());
+    updated.setName("Updated name");
+    updated.setVersion(1L);
+    List<SessionDto> updatedDtos = Arrays.asList(updated);
+    when(sessionService.findPageTag(null, null, null, null, 50)).thenReturn(SessionService.pageTag(updatedDtos));
+    when(sessionService.findPage(null, null, null, null, 50)).thenReturn(updatedDtos);
+
+    mockMvc
+        .perform(MockMvcRequestBuilders.get("/api/session").header(HttpHeaders.IF_NONE_MATCH, eTag)
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk()).andExpect(content().json(objectMapper.writeValueAsString(updatedDtos)));
+    verify(sessionService, times(2)).findPage(null, null, null, null, 50);
+  }
 }
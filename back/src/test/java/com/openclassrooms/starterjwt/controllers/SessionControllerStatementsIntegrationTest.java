@@ -0,0 +1,392 @@
+package com.openclassrooms.starterjwt.controllers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.openclassrooms.starterjwt.dto.SessionDto;
+import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.models.Teacher;
+import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.repository.SessionRepository;
+import com.openclassrooms.starterjwt.repository.TeacherRepository;
+import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
+import com.openclassrooms.starterjwt.services.SessionCache;
+import com.openclassrooms.starterjwt.services.SessionService;
+
+/**
+ * Counts the SQL statements issued by {@link SessionController} endpoints
+ * against an embedded database, through the Hibernate statistics or, for those
+ * issued through JdbcTemplate and for batches, as the driver receives them.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:session-statements;DB_CLOSE_DELAY=-1",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.flyway.enabled=false",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+    "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@AutoConfigureMockMvc
+public class SessionControllerStatementsIntegrationTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private SessionCache sessionCache;
+
+  @Autowired
+  private SessionService sessionService;
+
+  @Autowired
+  private SessionRepository sessionRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private TeacherRepository teacherRepository;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private JdbcCounter jdbcCounter;
+
+  /**
+   * Stores 5 sessions, each with the same 2 participants, before each test.
+   */
+  @BeforeEach
+  public void init() {
+    sessionCache.evictAll();
+    sessionRepository.deleteAll();
+    userRepository.deleteAll();
+
+    List<User> users = userRepository.saveAll(Arrays.asList(
+        User.builder().email("john.doe@live.fr").firstName("John").lastName("Doe").password("pwd").build(),
+        User.builder().email("jane.doe@live.fr").firstName("Jane").lastName("Doe").password("pwd").build()));
+
+    for (int i = 0; i < 5; i++) {
+      sessionRepository.save(Session.builder().name("Session " + i).description("Description")
+          .date(new Date(1_000_000L * (i + 1))).users(new ArrayList<>(users)).build());
+    }
+  }
+
+  /**
+   * Tests that listing sessions reads all their participants with one query,
+   * whatever the number of sessions, without loading any user, after reading
+   * the versions the page is tagged with.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findAll_shouldNotIssueOneQueryPerSession() throws Exception {
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/api/session").accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.length()").value(5))
+        .andExpect(jsonPath("$[4].users.length()").value(2));
+
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+    assertThat(statistics.getEntityStatistics(User.class.getName()).getLoadCount()).isZero();
+  }
+
+  /**
+   * Tests that the export streams every session, with its participants, as a
+   * single JSON array.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void export_shouldStreamAllSessions() throws Exception {
+    MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/session/export")
+        .accept(MediaType.APPLICATION_JSON)).andExpect(request().asyncStarted()).andReturn();
+
+    mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(5)).andExpect(jsonPath("$[0].name").value("Session 0"))
+        .andExpect(jsonPath("$[4].users.length()").value(2));
+  }
+
+  /**
+   * Tests that joining and leaving a session each issue a single statement on
+   * PARTICIPATE, through JDBC and so not counted here, plus the version bump,
+   * and that joining twice is refused.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void participate_shouldNotLoadTheSession() throws Exception {
+    Long sessionId = sessionRepository.findAll().get(0).getId();
+    Long userId = userRepository.findAll().get(0).getId();
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+    statistics.clear();
+    mockMvc.perform(MockMvcRequestBuilders.delete("/api/session/" + sessionId + "/participate/" + userId))
+        .andExpect(status().isOk());
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+    statistics.clear();
+    mockMvc.perform(MockMvcRequestBuilders.post("/api/session/" + sessionId + "/participate/" + userId))
+        .andExpect(status().isOk());
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+    mockMvc.perform(MockMvcRequestBuilders.post("/api/session/" + sessionId + "/participate/" + userId))
+        .andExpect(status().isBadRequest());
+    assertThat(sessionService.getDtoById(sessionId).getUsers()).hasSize(2);
+  }
+
+  /**
+   * Tests that a bulk enrollment is validated with three queries and written
+   * with one batch per table, whatever the number of pairs, and reports the
+   * outcome of each pair in order.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  public void participateAll_shouldReportEachPair() throws Exception {
+    Long sessionId = sessionRepository.findAll().get(0).getId();
+    Long participantId = userRepository.findAll().get(0).getId();
+    List<Long> newUserIds = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      newUserIds.add(userRepository.save(User.builder().email("new" + i + "@live.fr").firstName("New")
+          .lastName("User").password("pwd").build()).getId());
+    }
+
+    List<Map<String, Long>> participations = new ArrayList<>();
+    newUserIds.forEach(userId -> participations.add(pair(sessionId, userId)));
+    participations.add(pair(sessionId, participantId));
+    participations.add(pair(sessionId, newUserIds.get(0)));
+    participations.add(pair(-1L, participantId));
+    participations.add(pair(sessionId, -1L));
+
+    jdbcCounter.reset();
+
+    mockMvc.perform(MockMvcRequestBuilders.post("/api/session/participate/bulk").with(user(admin()))
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(Collections.singletonMap("participations", participations))))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.length()").value(7))
+        .andExpect(jsonPath("$[0].enrolled").value(true)).andExpect(jsonPath("$[2].enrolled").value(true))
+        .andExpect(jsonPath("$[3].message").value("Error: User already participates"))
+        .andExpect(jsonPath("$[4].message").value("Error: User already participates"))
+        .andExpect(jsonPath("$[5].message").value("Error: Unknown session"))
+        .andExpect(jsonPath("$[6].message").value("Error: Unknown user"));
+
+    assertThat(jdbcCounter.queries.get()).isEqualTo(3);
+    // The 3 new participations, then the version of their session.
+    assertThat(jdbcCounter.batches.get()).isEqualTo(2);
+    assertThat(jdbcCounter.batchedRows.get()).isEqualTo(4);
+    assertThat(jdbcCounter.updates.get()).isZero();
+    SessionDto session = sessionService.getDtoById(sessionId);
+    assertThat(session.getUsers()).hasSize(5);
+    assertThat(session.getVersion()).isEqualTo(1L);
+  }
+
+  /**
+   * Tests that bulk enrollment is refused to non admin users.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void participateAll_shouldReturnForbidden_whenNotAdmin() throws Exception {
+    Long sessionId = sessionRepository.findAll().get(0).getId();
+
+    mockMvc.perform(MockMvcRequestBuilders.post("/api/session/participate/bulk")
+        .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(
+            Collections.singletonMap("participations", Collections.singletonList(pair(sessionId, 1L))))))
+        .andExpect(status().isForbidden());
+  }
+
+  /**
+   * Tests that a CSV import saves the valid rows with batched inserts and
+   * reports the invalid ones by line.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  public void importCsv_shouldBatchInserts() throws Exception {
+    Long teacherId = teacherRepository.save(Teacher.builder().firstName("Margot").lastName("Delahaye").build())
+        .getId();
+    StringBuilder csv = new StringBuilder("name,date,teacher_id,description\n");
+    for (int i = 0; i < 250; i++) {
+      csv.append("Imported ").append(i).append(",2030-01-01T10:00:00Z,").append(teacherId)
+          .append(",\"Stretching, then \"\"breathing\"\"\"\n");
+    }
+    csv.append("Bad date,tomorrow,").append(teacherId).append(",Description\n");
+    csv.append("Unknown teacher,2030-01-01,-1,Description\n");
+
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+    jdbcCounter.reset();
+
+    mockMvc.perform(MockMvcRequestBuilders.post("/api/session/import").with(user(admin()))
+        .contentType("text/csv").content(csv.toString()))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.imported").value(250))
+        .andExpect(jsonPath("$.rejected").value(2))
+        .andExpect(jsonPath("$.errors[0]").value("Line 252: Error: Invalid date tomorrow"))
+        .andExpect(jsonPath("$.errors[1]").value("Line 253: Error: Unknown teacher id -1"));
+
+    assertThat(statistics.getEntityInsertCount()).isEqualTo(250);
+    // One batch of 100 inserts at a time, instead of one statement per session.
+    assertThat(jdbcCounter.batches.get()).isEqualTo(3);
+    assertThat(jdbcCounter.batchedRows.get()).isEqualTo(250);
+    assertThat(jdbcCounter.updates.get()).isZero();
+    assertThat(sessionRepository.count()).isEqualTo(255);
+    assertThat(sessionRepository.findAll().stream().filter(session -> session.getName().equals("Imported 0"))
+        .findFirst().get().getDescription()).isEqualTo("Stretching, then \"breathing\"");
+  }
+
+  private static UserDetailsImpl admin() {
+    return UserDetailsImpl.builder().id(1L).username("yoga@studio.com").firstName("Admin").lastName("Admin")
+        .admin(true).password("pwd").build();
+  }
+
+  private static Map<String, Long> pair(Long sessionId, Long userId) {
+    Map<String, Long> pair = new HashMap<>();
+    pair.put("sessionId", sessionId);
+    pair.put("userId", userId);
+    return pair;
+  }
+
+  @TestConfiguration
+  static class JdbcCounterConfiguration {
+    @Bean
+    static JdbcCounter jdbcCounter() {
+      return new JdbcCounter();
+    }
+  }
+
+  /**
+   * Wraps the datasource to count the statements executed by one thread, the
+   * one running the request with MockMvc, so that the scheduled jobs aren't
+   * counted.
+   */
+  static class JdbcCounter implements BeanPostProcessor {
+    final AtomicInteger queries = new AtomicInteger();
+
+    final AtomicInteger updates = new AtomicInteger();
+
+    final AtomicInteger batches = new AtomicInteger();
+
+    final AtomicInteger batchedRows = new AtomicInteger();
+
+    private volatile Thread counted;
+
+    /**
+     * Counts from zero the statements executed from now on by the calling
+     * thread.
+     */
+    void reset() {
+      queries.set(0);
+      updates.set(0);
+      batches.set(0);
+      batchedRows.set(0);
+      counted = Thread.currentThread();
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+      return bean instanceof DataSource ? proxy(DataSource.class, bean) : bean;
+    }
+
+    private <T> T proxy(Class<T> type, Object target) {
+      return type.cast(Proxy.newProxyInstance(JdbcCounter.class.getClassLoader(), new Class<?>[] { type },
+          (proxy, method, args) -> {
+            Object result;
+            try {
+              result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+              throw e.getTargetException();
+            }
+            return count(method.getName(), result);
+          }));
+    }
+
+    private Object count(String method, Object result) {
+      switch (method) {
+        case "getConnection":
+          return proxy(Connection.class, result);
+        case "createStatement":
+          return proxy(Statement.class, result);
+        case "prepareStatement":
+          return proxy(PreparedStatement.class, result);
+        case "prepareCall":
+          return proxy(CallableStatement.class, result);
+        default:
+          break;
+      }
+
+      if (Thread.currentThread() != counted) {
+        return result;
+      }
+      switch (method) {
+        case "executeQuery":
+          queries.incrementAndGet();
+          break;
+        case "execute":
+        case "executeUpdate":
+        case "executeLargeUpdate":
+          updates.incrementAndGet();
+          break;
+        case "addBatch":
+          batchedRows.incrementAndGet();
+          break;
+        case "executeBatch":
+        case "executeLargeBatch":
+          batches.incrementAndGet();
+          break;
+        default:
+          break;
+      }
+      return result;
+    }
+  }
+}
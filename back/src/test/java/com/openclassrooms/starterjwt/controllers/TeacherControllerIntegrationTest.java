@@ -1,11 +1,19 @@
 package com.openclassrooms.starterjwt.controllers;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -13,15 +21,19 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.util.StreamUtils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.openclassrooms.starterjwt.dto.TeacherDto;
 import com.openclassrooms.starterjwt.mapper.TeacherMapper;
 import com.openclassrooms.starterjwt.models.Teacher;
+import com.openclassrooms.starterjwt.services.TeacherCatalogue;
 import com.openclassrooms.starterjwt.services.TeacherService;
 
 /**
@@ -37,6 +49,9 @@ public class TeacherControllerIntegrationTest {
   @MockBean
   private TeacherService teacherService;
 
+  @MockBean
+  private TeacherCatalogue teacherCatalogue;
+
   @Autowired
   private MockMvc mockMvc;
 
@@ -67,14 +82,39 @@ public class TeacherControllerIntegrationTest {
   @Test
   @WithMockUser
   public void findAll_shouldSucceedRequestWithAllTeachers() throws Exception {
-    List<Teacher> teachers = Arrays.asList(teacher);
     List<TeacherDto> teacherDtos = Arrays.asList(teacherDto);
-
-    when(teacherService.findAll()).thenReturn(teachers);
-    when(teacherMapper.toDto(teachers)).thenReturn(teacherDtos);
+    when(teacherCatalogue.get()).thenReturn(snapshot(teacherDtos));
 
     mockMvc.perform(MockMvcRequestBuilders.get("/api/teacher").accept(MediaType.APPLICATION_JSON))
-        .andExpect(status().isOk()).andExpect(content().json(objectMapper.writeValueAsString(teacherDtos)));
+        .andExpect(status().isOk()).andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+        .andExpect(header().string(HttpHeaders.ETAG, "\"teachers-5e8d\""))
+        .andExpect(content().contentType("application/json;charset=UTF-8"))
+        .andExpect(content().json(objectMapper.writeValueAsString(teacherDtos)));
+    verify(teacherService, never()).findAll();
+  }
+
+  /**
+   * Tests that findAll method returns the gzipped teachers to a client that
+   * accepts them.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findAll_shouldSendGzippedTeachers_whenAccepted() throws Exception {
+    List<TeacherDto> teacherDtos = Arrays.asList(teacherDto);
+    TeacherCatalogue.Snapshot snapshot = snapshot(teacherDtos);
+    when(teacherCatalogue.get()).thenReturn(snapshot);
+
+    MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/teacher")
+        .header(HttpHeaders.ACCEPT_ENCODING, "br, gzip;q=0.8").accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk()).andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+        .andExpect(header().string(HttpHeaders.ETAG, "\"teachers-5e8d-gzip\"")).andReturn();
+
+    try (GZIPInputStream input = new GZIPInputStream(
+        new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+      assertThat(StreamUtils.copyToByteArray(input)).isEqualTo(snapshot.getJson());
+    }
   }
 
   /**
@@ -124,4 +164,56 @@ public class TeacherControllerIntegrationTest {
     mockMvc.perform(MockMvcRequestBuilders.get("/api/teacher/" + id).accept(MediaType.APPLICATION_JSON))
         .andExpect(status().isNotFound());
   }
+
+  /**
+   * Tests that findAll method returns a 304 response when the client already
+   * has the current list.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findAll_shouldReturnNotModified_whenETagMatches() throws Exception {
+    when(teacherCatalogue.get()).thenReturn(snapshot(Arrays.asList(teacherDto)));
+
+    mockMvc
+        .perform(MockMvcRequestBuilders.get("/api/teacher").header(HttpHeaders.IF_NONE_MATCH, "\"teachers-5e8d\"")
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isNotModified()).andExpect(header().string(HttpHeaders.ETAG, "\"teachers-5e8d\""));
+  }
+
+  /**
+   * Tests that the tag of the plain list doesn't validate the gzipped one, and
+   * the other way round.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findAll_shouldTagEachEncodingApart() throws Exception {
+    when(teacherCatalogue.get()).thenReturn(snapshot(Arrays.asList(teacherDto)));
+
+    mockMvc
+        .perform(MockMvcRequestBuilders.get("/api/teacher").header(HttpHeaders.IF_NONE_MATCH, "\"teachers-5e8d\"")
+            .header(HttpHeaders.ACCEPT_ENCODING, "gzip").accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk()).andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"));
+    mockMvc
+        .perform(MockMvcRequestBuilders.get("/api/teacher")
+            .header(HttpHeaders.IF_NONE_MATCH, "\"teachers-5e8d-gzip\"").accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk()).andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING));
+    mockMvc
+        .perform(MockMvcRequestBuilders.get("/api/teacher")
+            .header(HttpHeaders.IF_NONE_MATCH, "\"teachers-5e8d-gzip\"").header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isNotModified());
+  }
+
+  private TeacherCatalogue.Snapshot snapshot(List<TeacherDto> teacherDtos) throws Exception {
+    byte[] json = objectMapper.writeValueAsBytes(teacherDtos);
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    try (GZIPOutputStream output = new GZIPOutputStream(gzipped)) {
+      output.write(json);
+    }
+    return new TeacherCatalogue.Snapshot("1-1-0", "5e8d", teacherDtos, json, gzipped.toByteArray());
+  }
 }
@@ -0,0 +1,229 @@
+package com.openclassrooms.starterjwt.controllers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import com.openclassrooms.starterjwt.dto.SessionDto;
+import com.openclassrooms.starterjwt.mapper.SessionMapper;
+import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.models.Teacher;
+import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.repository.SessionRepository;
+import com.openclassrooms.starterjwt.repository.TeacherRepository;
+import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.services.TeacherCatalogue;
+
+/**
+ * Counts the SQL statements issued for teachers, which are served by the
+ * second-level cache once read, against an embedded database.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:teacher-statements;DB_CLOSE_DELAY=-1",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.flyway.enabled=false",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+    "spring.jpa.properties.hibernate.cache.region_prefix=teacher-statements"
+})
+@AutoConfigureMockMvc
+public class TeacherControllerStatementsIntegrationTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private TeacherRepository teacherRepository;
+
+  @Autowired
+  private SessionRepository sessionRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private SessionMapper sessionMapper;
+
+  @Autowired
+  private TeacherCatalogue teacherCatalogue;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private List<Teacher> teachers;
+
+  /**
+   * Stores 2 teachers, without sessions nor users, before each test.
+   */
+  @BeforeEach
+  public void init() {
+    sessionRepository.deleteAll();
+    userRepository.deleteAll();
+    teacherRepository.deleteAll();
+    teachers = teacherRepository.saveAll(Arrays.asList(
+        Teacher.builder().firstName("Margot").lastName("DELAHAYE").build(),
+        Teacher.builder().firstName("Hélène").lastName("THIERCELIN").build()));
+  }
+
+  /**
+   * Tests that once read, the list of teachers and each teacher are served
+   * without any statement, and that checking the catalogue for changes only
+   * hits the query cache.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findAll_shouldNotQueryOnceCached() throws Exception {
+    Long teacherId = teachers.get(0).getId();
+    getTeachers(2);
+    getTeacher(teacherId);
+
+    Statistics statistics = statistics();
+    statistics.clear();
+    for (int i = 0; i < 10; i++) {
+      getTeachers(2);
+      getTeacher(teacherId);
+      teacherCatalogue.refresh();
+    }
+
+    assertThat(statistics.getPrepareStatementCount()).isZero();
+    assertThat(statistics.getQueryCacheHitCount()).isPositive();
+    assertThat(statistics.getSecondLevelCacheHitCount()).isPositive();
+  }
+
+  /**
+   * Tests that joining a session, whose statement doesn't touch the teachers,
+   * doesn't evict them from the caches.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findAll_shouldStayCachedWhenASessionIsJoined() throws Exception {
+    Long teacherId = teachers.get(0).getId();
+    Long userId = userRepository.save(User.builder().email("john.doe@live.fr").firstName("John").lastName("Doe")
+        .password("pwd").build()).getId();
+    Long sessionId = sessionRepository.save(Session.builder().name("Session").description("Description")
+        .date(new Date()).users(new ArrayList<>()).build()).getId();
+    getTeachers(2);
+    getTeacher(teacherId);
+    teacherCatalogue.refresh();
+
+    mockMvc.perform(MockMvcRequestBuilders.post("/api/session/" + sessionId + "/participate/" + userId))
+        .andExpect(status().isOk());
+
+    Statistics statistics = statistics();
+    statistics.clear();
+    getTeachers(2);
+    getTeacher(teacherId);
+    teacherCatalogue.refresh();
+
+    assertThat(statistics.getPrepareStatementCount()).isZero();
+  }
+
+  /**
+   * Tests that mapping a session to save looks its teacher up in the cache.
+   */
+  @Test
+  public void toEntity_shouldNotLoadTheTeacher() {
+    SessionDto sessionDto = new SessionDto();
+    sessionDto.setName("Session");
+    sessionDto.setDescription("Description");
+    sessionDto.setTeacher_id(teachers.get(1).getId());
+
+    Statistics statistics = statistics();
+    statistics.clear();
+
+    assertThat(sessionMapper.toEntity(sessionDto).getTeacher().getLastName()).isEqualTo("THIERCELIN");
+    assertThat(statistics.getPrepareStatementCount()).isZero();
+  }
+
+  /**
+   * Tests that the pre-encoded list declares its charset, so that non-ASCII
+   * names are decoded as they were stored.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findAll_shouldDeclareUtf8() throws Exception {
+    mockMvc.perform(MockMvcRequestBuilders.get("/api/teacher").accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk()).andExpect(content().contentType("application/json;charset=UTF-8"))
+        .andExpect(jsonPath("$[*].firstName", hasItem("Hélène")));
+  }
+
+  /**
+   * Tests that a teacher added after the list has been cached is listed.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findAll_shouldListTeacherAddedSinceCached() throws Exception {
+    getTeachers(2);
+
+    teacherRepository.save(Teacher.builder().firstName("John").lastName("DOE").build());
+
+    getTeachers(3);
+  }
+
+  /**
+   * Tests that a teacher inserted behind the application's back, which the
+   * caches can't see, is listed after the scheduled refresh.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void scheduledRefresh_shouldListTeacherInsertedOutsideTheApplication() throws Exception {
+    getTeachers(2);
+
+    jdbcTemplate.update("INSERT INTO TEACHERS (first_name, last_name) VALUES ('John', 'DOE')");
+    teacherCatalogue.refresh();
+    getTeachers(2);
+
+    teacherCatalogue.scheduledRefresh();
+    getTeachers(3);
+  }
+
+  private void getTeachers(int count) throws Exception {
+    mockMvc.perform(MockMvcRequestBuilders.get("/api/teacher").accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.length()").value(count));
+  }
+
+  private void getTeacher(Long id) throws Exception {
+    mockMvc.perform(MockMvcRequestBuilders.get("/api/teacher/" + id).accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.id").value(id));
+  }
+
+  private Statistics statistics() {
+    return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+  }
+}
@@ -1,7 +1,10 @@
 package com.openclassrooms.starterjwt.controllers;
 
 import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -10,6 +13,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
@@ -19,6 +23,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.openclassrooms.starterjwt.dto.UserDto;
 import com.openclassrooms.starterjwt.mapper.UserMapper;
 import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.models.UserDeletion;
+import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
 import com.openclassrooms.starterjwt.services.UserService;
 
 /**
@@ -108,7 +114,8 @@ public class UserControllerIntegrationTest {
   }
 
   /**
-   * Tests that delete method returns a successful response.
+   * Tests that delete method returns an accepted response pointing to the
+   * purge job.
    * 
    * @throws Exception if simulated call to the end point fails.
    */
@@ -118,24 +125,71 @@ public class UserControllerIntegrationTest {
     Long id = 1L;
 
     when(userService.findById(id)).thenReturn(user);
+    when(userService.delete(id)).thenReturn(deletion(7L, UserDeletion.Status.PENDING));
 
-    mockMvc.perform(MockMvcRequestBuilders.delete("/api/user/" + id)).andExpect(status().isOk());
+    mockMvc.perform(MockMvcRequestBuilders.delete("/api/user/" + id)).andExpect(status().isAccepted())
+        .andExpect(header().string(HttpHeaders.LOCATION, "/api/user/deletion/7"))
+        .andExpect(jsonPath("$.jobId").value(7)).andExpect(jsonPath("$.status").value("PENDING"));
   }
 
   /**
-   * Tests that delete method returns an unauthorized response when the user to
+   * Tests that findDeletion method reports the progress of the purge.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  public void findDeletion_shouldReportProgress() throws Exception {
+    when(userService.findDeletion(7L)).thenReturn(deletion(7L, UserDeletion.Status.DONE).setPurgedParticipations(3));
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/api/user/deletion/7").with(user(principal(user.getId(), false))))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.status").value("DONE"))
+        .andExpect(jsonPath("$.purgedParticipations").value(3));
+    mockMvc.perform(MockMvcRequestBuilders.get("/api/user/deletion/7").with(user(principal(2L, true))))
+        .andExpect(status().isOk());
+  }
+
+  /**
+   * Tests that findDeletion method returns a forbidden response to users
+   * other than the deleted one and the admins.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  public void findDeletion_shouldReturnForbidden_whenUserNotSelf() throws Exception {
+    when(userService.findDeletion(7L)).thenReturn(deletion(7L, UserDeletion.Status.PENDING));
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/api/user/deletion/7").with(user(principal(2L, false))))
+        .andExpect(status().isForbidden());
+  }
+
+  /**
+   * Tests that findDeletion method returns a not found response for an unknown
+   * job.
+   * 
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser
+  public void findDeletion_shouldReturnNotFound_whenJobDoesntExist() throws Exception {
+    when(userService.findDeletion(8L)).thenReturn(null);
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/api/user/deletion/8")).andExpect(status().isNotFound());
+  }
+
+  /**
+   * Tests that delete method returns a forbidden response when the user to
    * delete isn't the authenticated one.
    * 
    * @throws Exception if simulated call to the end point fails.
    */
   @Test
   @WithMockUser(username = "wrongEmail@live.fr")
-  public void delete_shouldReturnUnauthorized_whenUserNotSelf() throws Exception {
+  public void delete_shouldReturnForbidden_whenUserNotSelf() throws Exception {
     Long id = 1L;
 
     when(userService.findById(id)).thenReturn(user);
 
-    mockMvc.perform(MockMvcRequestBuilders.delete("/api/user/" + id)).andExpect(status().isUnauthorized());
+    mockMvc.perform(MockMvcRequestBuilders.delete("/api/user/" + id)).andExpect(status().isForbidden());
   }
 
   /**
@@ -166,4 +220,13 @@ public class UserControllerIntegrationTest {
     mockMvc.perform(MockMvcRequestBuilders.delete("/api/user/" + id).accept(MediaType.APPLICATION_JSON))
         .andExpect(status().isNotFound());
   }
+
+  private static UserDetailsImpl principal(Long id, boolean admin) {
+    return UserDetailsImpl.builder().id(id).username("user" + id + "@live.fr").firstName("First").lastName("Last")
+        .admin(admin).password("pwd").build();
+  }
+
+  private UserDeletion deletion(Long jobId, UserDeletion.Status status) {
+    return UserDeletion.builder().id(jobId).userId(user.getId()).status(status).build();
+  }
 }
@@ -0,0 +1,187 @@
+package com.openclassrooms.starterjwt.datasource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import com.openclassrooms.starterjwt.models.Teacher;
+import com.openclassrooms.starterjwt.repository.TeacherRepository;
+import com.openclassrooms.starterjwt.services.TeacherService;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Runs the application against two embedded databases, a primary and a
+ * replica that isn't replicated to, so that the database which served a read,
+ * or received a write, can be told from its data. The second-level cache,
+ * which would serve the reads before either, is disabled.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=" + ReadWriteRoutingIntegrationTest.PRIMARY_URL,
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "oc.app.datasource.replica.url=" + ReadWriteRoutingIntegrationTest.REPLICA_URL,
+    "oc.app.datasource.stickyWindowMs=600000",
+    "spring.datasource.hikari.maximum-pool-size=7",
+    "oc.app.datasource.replica.hikari.maximum-pool-size=3",
+    "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+    "spring.jpa.properties.hibernate.cache.use_query_cache=false",
+    "spring.jpa.hibernate.ddl-auto=validate",
+    "spring.jpa.properties.hibernate.dialect="
+        + "com.openclassrooms.starterjwt.SchemaMigrationIntegrationTest$MigratedSchemaDialect"
+})
+@AutoConfigureMockMvc
+public class ReadWriteRoutingIntegrationTest {
+  static final String PRIMARY_URL = "jdbc:h2:mem:routing-primary;MODE=MySQL;DB_CLOSE_DELAY=-1";
+
+  static final String REPLICA_URL = "jdbc:h2:mem:routing-replica;MODE=MySQL;DB_CLOSE_DELAY=-1";
+
+  private static final long SESSION_ID = 1000L;
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private TeacherService teacherService;
+
+  @Autowired
+  private TeacherRepository teacherRepository;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  @Qualifier("primaryDataSource")
+  private HikariDataSource primaryDataSource;
+
+  @Autowired
+  @Qualifier("replicaDataSource")
+  private HikariDataSource replicaDataSource;
+
+  private JdbcTemplate primary;
+
+  private JdbcTemplate replica;
+
+  /**
+   * Migrates the replica and stores a teacher named REPLICA in it only.
+   */
+  @BeforeEach
+  public void init() {
+    DriverManagerDataSource replicaDataSource = new DriverManagerDataSource(REPLICA_URL, "sa", "");
+    Flyway.configure().dataSource(replicaDataSource).load().migrate();
+
+    primary = new JdbcTemplate(new DriverManagerDataSource(PRIMARY_URL, "sa", ""));
+    replica = new JdbcTemplate(replicaDataSource);
+    replica.update("DELETE FROM TEACHERS WHERE last_name = 'REPLICA'");
+    replica.update("INSERT INTO TEACHERS (first_name, last_name) VALUES ('Read', 'REPLICA')");
+  }
+
+  @AfterEach
+  public void clear() {
+    SecurityContextHolder.clearContext();
+  }
+
+  /**
+   * Tests that a read-only service method reads from the replica.
+   */
+  @Test
+  public void findAll_shouldReadFromReplica() {
+    double replicaReads = replicaReads();
+
+    authenticate("jane@studio.com");
+    assertThat(lastNames(teacherService.findAll())).contains("REPLICA").doesNotContain("PRIMARY");
+
+    assertThat(replicaReads()).isGreaterThan(replicaReads);
+  }
+
+  /**
+   * Tests that a user who has just written reads from the primary, while the
+   * others still read from the replica.
+   */
+  @Test
+  public void findAll_shouldReadOwnWritesFromPrimary() {
+    authenticate("john@studio.com");
+    teacherRepository.save(Teacher.builder().firstName("Written").lastName("PRIMARY").build());
+
+    assertThat(lastNames(teacherService.findAll())).contains("PRIMARY").doesNotContain("REPLICA");
+
+    authenticate("jane@studio.com");
+    assertThat(lastNames(teacherService.findAll())).contains("REPLICA").doesNotContain("PRIMARY");
+  }
+
+  /**
+   * Tests that a request which reads a session from the replica, then deletes
+   * it, runs the delete on the primary.
+   *
+   * @throws Exception if simulated call to the end point fails.
+   */
+  @Test
+  @WithMockUser(username = "admin@studio.com")
+  public void delete_shouldWriteToPrimaryAfterReadingFromReplica() throws Exception {
+    insertSession(primary);
+    insertSession(replica);
+    double replicaReads = replicaReads();
+
+    mockMvc.perform(MockMvcRequestBuilders.delete("/api/session/" + SESSION_ID)).andExpect(status().isOk());
+
+    assertThat(replicaReads()).isGreaterThan(replicaReads);
+    assertThat(countSessions(primary)).isZero();
+    assertThat(countSessions(replica)).isOne();
+  }
+
+  /**
+   * Tests that each pool is tuned by its own hikari properties.
+   */
+  @Test
+  public void pools_shouldApplyConfiguredHikariProperties() {
+    assertThat(primaryDataSource.getPoolName()).isEqualTo("primary");
+    assertThat(primaryDataSource.getMaximumPoolSize()).isEqualTo(7);
+    assertThat(replicaDataSource.getPoolName()).isEqualTo("replica");
+    assertThat(replicaDataSource.getMaximumPoolSize()).isEqualTo(3);
+    assertThat(replicaDataSource.isReadOnly()).isTrue();
+  }
+
+  private static void insertSession(JdbcTemplate jdbcTemplate) {
+    jdbcTemplate.update("DELETE FROM SESSIONS WHERE id = ?", SESSION_ID);
+    jdbcTemplate.update("INSERT INTO SESSIONS (id, name, description, date) VALUES (?, 'Session', 'Description', ?)",
+        SESSION_ID, new Timestamp(System.currentTimeMillis()));
+  }
+
+  private static long countSessions(JdbcTemplate jdbcTemplate) {
+    return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM SESSIONS WHERE id = ?", Long.class, SESSION_ID);
+  }
+
+  private double replicaReads() {
+    return meterRegistry.get("datasource.route").tag("route", "replica").counter().count();
+  }
+
+  private static void authenticate(String username) {
+    SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(username, null,
+        AuthorityUtils.NO_AUTHORITIES));
+  }
+
+  private static List<String> lastNames(List<Teacher> teachers) {
+    return teachers.stream().map(Teacher::getLastName).collect(Collectors.toList());
+  }
+}
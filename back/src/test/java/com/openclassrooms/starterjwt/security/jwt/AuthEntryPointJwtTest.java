@@ -0,0 +1,42 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.InsufficientAuthenticationException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests {@link AuthEntryPointJwt} class.
+ */
+public class AuthEntryPointJwtTest {
+
+  /**
+   * Tests that commence method writes a 401 JSON body with the exception
+   * message and the requested path.
+   *
+   * @throws Exception if the body can't be written or read.
+   */
+  @Test
+  public void commence_shouldWriteUnauthorizedBody() throws Exception {
+    AuthEntryPointJwt classUnderTest = new AuthEntryPointJwt(new AuthErrorLogger(new SimpleMeterRegistry(), 10000));
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/session");
+    request.setServletPath("/api/session");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    classUnderTest.commence(request, response, new InsufficientAuthenticationException("Full \"authentication\""));
+
+    JsonNode body = new ObjectMapper().readTree(response.getContentAsString());
+    assertThat(response.getStatus()).isEqualTo(401);
+    assertThat(body.get("status").asInt()).isEqualTo(401);
+    assertThat(body.get("error").asText()).isEqualTo("Unauthorized");
+    assertThat(body.get("message").asText()).isEqualTo("Full \"authentication\"");
+    assertThat(body.get("path").asText()).isEqualTo("/api/session");
+  }
+}
@@ -0,0 +1,32 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import com.openclassrooms.starterjwt.security.jwt.AuthErrorLogger.Reason;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests {@link AuthErrorLogger} class.
+ */
+public class AuthErrorLoggerTest {
+
+  /**
+   * Tests that record method counts every failure under its own reason.
+   */
+  @Test
+  public void record_shouldCountFailuresPerReason() {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    AuthErrorLogger classUnderTest = new AuthErrorLogger(meterRegistry, 60000);
+
+    classUnderTest.record(Reason.EXPIRED, "expired");
+    classUnderTest.record(Reason.EXPIRED, "expired");
+    classUnderTest.record(Reason.BAD_SIGNATURE, "forged");
+
+    assertThat(meterRegistry.get("auth.errors").tag("reason", "expired").counter().count()).isEqualTo(2);
+    assertThat(meterRegistry.get("auth.errors").tag("reason", "bad_signature").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("auth.errors").tag("reason", "malformed").counter().count()).isZero();
+  }
+}
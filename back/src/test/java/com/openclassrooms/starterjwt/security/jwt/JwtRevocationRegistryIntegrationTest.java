@@ -0,0 +1,98 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.repository.UserDeletionRepository;
+import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
+import com.openclassrooms.starterjwt.services.UserService;
+
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Deletes a user against an embedded database, then checks its token with a
+ * registry built afresh, as on another node or after a restart.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:jwt-revocation;DB_CLOSE_DELAY=-1",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.flyway.enabled=false",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+    "oc.app.userDeletion.pollMs=3600000"
+})
+public class JwtRevocationRegistryIntegrationTest {
+  private static final long JWT_EXPIRATION_MS = 86400000;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserDeletionRepository userDeletionRepository;
+
+  @Autowired
+  private JwtUtils jwtUtils;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private String token;
+
+  private Claims claims;
+
+  /**
+   * Stores John Doe, issues him a token, then deletes him before each test.
+   */
+  @BeforeEach
+  public void init() {
+    userDeletionRepository.deleteAll();
+    jdbcTemplate.update("DELETE FROM USERS");
+
+    User user = userRepository.save(User.builder().email("john.doe@live.fr").firstName("John").lastName("Doe")
+        .password("pwd").build());
+    token = jwtUtils.generateJwtToken(new UsernamePasswordAuthenticationToken(UserDetailsImpl.builder()
+        .id(user.getId()).username(user.getEmail()).firstName("John").lastName("Doe").admin(false).build(), null));
+    claims = jwtUtils.getClaimsFromJwtToken(token);
+
+    userService.delete(user.getId());
+  }
+
+  /**
+   * Tests that the token of the deleted user is rejected once a rebuilt
+   * registry has reloaded the stored deletions.
+   */
+  @Test
+  public void reload_shouldRevokeToken_whenRegistryRebuilt() {
+    JwtRevocationRegistry rebuilt = new JwtRevocationRegistry(userDeletionRepository, JWT_EXPIRATION_MS);
+    assertThat(rebuilt.isRevoked(claims)).isFalse();
+
+    rebuilt.reload();
+
+    assertThat(rebuilt.isRevoked(claims)).isTrue();
+  }
+
+  /**
+   * Tests that the token of the deleted user is rejected as soon as a rebuilt
+   * registry sees it for the first time, before any reload.
+   */
+  @Test
+  public void getVerifiedClaims_shouldRevokeToken_whenRegistryRebuilt() {
+    JwtRevocationRegistry rebuilt = new JwtRevocationRegistry(userDeletionRepository, JWT_EXPIRATION_MS);
+    JwtTokenCache jwtTokenCache = new JwtTokenCache(jwtUtils, rebuilt, new SimpleMeterRegistry(), 100);
+
+    assertThat(rebuilt.isRevoked(jwtTokenCache.getVerifiedClaims(token))).isTrue();
+  }
+}
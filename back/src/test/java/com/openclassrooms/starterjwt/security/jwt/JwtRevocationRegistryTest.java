@@ -0,0 +1,98 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.openclassrooms.starterjwt.repository.UserDeletionRepository;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.impl.DefaultClaims;
+
+/**
+ * Tests {@link JwtRevocationRegistry} class.
+ */
+@ExtendWith(MockitoExtension.class)
+public class JwtRevocationRegistryTest {
+
+  @Mock
+  private UserDeletionRepository userDeletionRepository;
+
+  private JwtRevocationRegistry classUnderTest;
+
+  /**
+   * Instantiate classUnderTest before each test.
+   */
+  @BeforeEach
+  public void init() {
+    classUnderTest = new JwtRevocationRegistry(userDeletionRepository, 60000);
+  }
+
+  /**
+   * Tests that every token of a deleted user is rejected, even one issued
+   * after the deletion.
+   */
+  @Test
+  public void isRevoked_shouldReturnTrue_whenUserDeleted() {
+    classUnderTest.revokeDeletedUser(1L);
+
+    assertThat(classUnderTest.isRevoked(claims(1L, new Date(System.currentTimeMillis() - 1000)))).isTrue();
+    assertThat(classUnderTest.isRevoked(claims(1L, new Date(System.currentTimeMillis() + 1000)))).isTrue();
+  }
+
+  /**
+   * Tests that tokens of other users are still accepted.
+   */
+  @Test
+  public void isRevoked_shouldReturnFalse_whenOtherUser() {
+    classUnderTest.revokeDeletedUser(1L);
+
+    assertThat(classUnderTest.isRevoked(claims(2L, new Date()))).isFalse();
+  }
+
+  /**
+   * Tests that the users deleted elsewhere, as stored, have all their tokens
+   * revoked once reloaded.
+   */
+  @Test
+  public void reload_shouldRevokeStoredDeletions() {
+    when(userDeletionRepository.findUserIdsDeletedSince(any())).thenReturn(Arrays.asList(1L, 3L));
+
+    classUnderTest.reload();
+
+    assertThat(classUnderTest.isRevoked(claims(1L, new Date(System.currentTimeMillis() + 1000)))).isTrue();
+    assertThat(classUnderTest.isRevoked(claims(2L, new Date()))).isFalse();
+    assertThat(classUnderTest.isRevoked(claims(3L, new Date()))).isTrue();
+  }
+
+  /**
+   * Tests that reloadUser method revokes the tokens of a deleted user only.
+   */
+  @Test
+  public void reloadUser_shouldRevoke_whenUserDeleted() {
+    when(userDeletionRepository.existsByUserId(1L)).thenReturn(true);
+    when(userDeletionRepository.existsByUserId(2L)).thenReturn(false);
+
+    classUnderTest.reloadUser(1L);
+    classUnderTest.reloadUser(2L);
+
+    assertThat(classUnderTest.isRevoked(claims(1L, new Date()))).isTrue();
+    assertThat(classUnderTest.isRevoked(claims(2L, new Date()))).isFalse();
+  }
+
+  private static Claims claims(Long userId, Date issuedAt) {
+    Claims claims = new DefaultClaims();
+    claims.put("id", userId);
+    claims.setIssuedAt(issuedAt);
+    return claims;
+  }
+}
@@ -0,0 +1,93 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
+
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests {@link JwtTokenCache} class.
+ */
+public class JwtTokenCacheTest {
+
+  private final AuthErrorLogger authErrorLogger = new AuthErrorLogger(new SimpleMeterRegistry(), 10000);
+
+  private JwtUtils jwtUtils;
+
+  private JwtRevocationRegistry jwtRevocationRegistry;
+
+  private JwtTokenCache classUnderTest;
+
+  private String token;
+
+  /**
+   * Creates a JwtUtils spy, a revocation registry mock, the cache under test and
+   * a valid token for John Doe before each test.
+   */
+  @BeforeEach
+  public void init() {
+    jwtUtils = spy(new JwtUtils("testSecret", 60000, "1", "", authErrorLogger));
+
+    jwtRevocationRegistry = mock(JwtRevocationRegistry.class);
+
+    classUnderTest = new JwtTokenCache(jwtUtils, jwtRevocationRegistry, new SimpleMeterRegistry(), 100);
+
+    UserDetailsImpl userDetails = UserDetailsImpl.builder().id(1L).username("john.doe@live.fr").firstName("John")
+        .lastName("Doe").admin(false).password("pwd").build();
+    token = jwtUtils.generateJwtToken(new UsernamePasswordAuthenticationToken(userDetails, null));
+  }
+
+  /**
+   * Tests that getVerifiedClaims method verifies a token, and checks whether its
+   * user has been deleted, only once and then serves it from the cache.
+   */
+  @Test
+  public void getVerifiedClaims_shouldParseTokenOnlyOnce() {
+    Claims first = classUnderTest.getVerifiedClaims(token);
+    Claims second = classUnderTest.getVerifiedClaims(token);
+
+    assertThat(first.getSubject()).isEqualTo("john.doe@live.fr");
+    assertThat(second).isSameAs(first);
+    verify(jwtUtils, times(1)).getClaimsFromJwtToken(token);
+    verify(jwtRevocationRegistry, times(1)).reloadUser(1L);
+    assertThat(classUnderTest.getMissCount()).isEqualTo(1);
+    assertThat(classUnderTest.getHitCount()).isEqualTo(1);
+  }
+
+  /**
+   * Tests that getVerifiedClaims method returns null for an invalid token and
+   * doesn't cache it.
+   */
+  @Test
+  public void getVerifiedClaims_shouldReturnNull_whenTokenIsInvalid() {
+    String tampered = token.substring(0, token.length() - 2) + "xx";
+
+    assertThat(classUnderTest.getVerifiedClaims(tampered)).isNull();
+    assertThat(classUnderTest.getVerifiedClaims(tampered)).isNull();
+
+    verify(jwtUtils, times(2)).getClaimsFromJwtToken(tampered);
+    assertThat(classUnderTest.getHitCount()).isZero();
+  }
+
+  /**
+   * Tests that getVerifiedClaims method returns null for an expired token.
+   */
+  @Test
+  public void getVerifiedClaims_shouldReturnNull_whenTokenIsExpired() {
+    JwtUtils expiredJwtUtils = new JwtUtils("testSecret", -1000, "1", "", authErrorLogger);
+    UserDetailsImpl userDetails = UserDetailsImpl.builder().id(1L).username("john.doe@live.fr").build();
+    String expired = expiredJwtUtils.generateJwtToken(new UsernamePasswordAuthenticationToken(userDetails, null));
+
+    assertThat(classUnderTest.getVerifiedClaims(expired)).isNull();
+  }
+}
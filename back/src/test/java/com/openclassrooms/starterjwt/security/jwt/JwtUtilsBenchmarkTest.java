@@ -0,0 +1,100 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import com.openclassrooms.starterjwt.repository.UserDeletionRepository;
+import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
+
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Compares token verification through the pre-built {@link JwtUtils} parser
+ * with a parser built from the secret string on every call, and verification
+ * through {@link JwtTokenCache} when the token is cached or not. Skipped unless
+ * run with -Dbenchmark=true, e.g.
+ * mvn test -Dtest=JwtUtilsBenchmarkTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class JwtUtilsBenchmarkTest {
+  private static final Logger logger = LoggerFactory.getLogger(JwtUtilsBenchmarkTest.class);
+
+  private static final int WARMUP = 20_000;
+
+  private static final int ITERATIONS = 100_000;
+
+  private static final String SECRET = "testSecret";
+
+  private final AuthErrorLogger authErrorLogger = new AuthErrorLogger(new SimpleMeterRegistry(), 10000);
+
+  /**
+   * Logs the average verification time of both paths.
+   */
+  @Test
+  public void verification_prebuiltParserVersusPerCallParser() {
+    JwtUtils jwtUtils = new JwtUtils(SECRET, 60000, "1", "", authErrorLogger);
+    UserDetailsImpl userDetails = UserDetailsImpl.builder().id(1L).username("john.doe@live.fr").firstName("John")
+        .lastName("Doe").admin(false).build();
+    String token = jwtUtils.generateJwtToken(new UsernamePasswordAuthenticationToken(userDetails, null));
+
+    measure(() -> Jwts.parser().setSigningKey(SECRET).parseClaimsJws(token).getBody(), WARMUP);
+    double perCallNs = measure(() -> Jwts.parser().setSigningKey(SECRET).parseClaimsJws(token).getBody(),
+        ITERATIONS);
+
+    measure(() -> jwtUtils.getClaimsFromJwtToken(token), WARMUP);
+    double prebuiltNs = measure(() -> jwtUtils.getClaimsFromJwtToken(token), ITERATIONS);
+
+    logger.info("JWT verification: per-call parser {} ns/op, pre-built parser {} ns/op", Math.round(perCallNs),
+        Math.round(prebuiltNs));
+    assertThat(jwtUtils.getClaimsFromJwtToken(token)).isNotNull();
+  }
+
+  /**
+   * Logs the average verification time through the cache, of a token seen
+   * before and of tokens never seen.
+   */
+  @Test
+  public void verification_cacheHitVersusCacheMiss() {
+    JwtUtils jwtUtils = new JwtUtils(SECRET, 60000, "1", "", authErrorLogger);
+    JwtRevocationRegistry jwtRevocationRegistry = new JwtRevocationRegistry(mock(UserDeletionRepository.class),
+        60000);
+    String[] tokens = new String[WARMUP + ITERATIONS];
+    for (int i = 0; i < tokens.length; i++) {
+      UserDetailsImpl userDetails = UserDetailsImpl.builder().id((long) i).username("user" + i + "@live.fr")
+          .firstName("John").lastName("Doe").admin(false).build();
+      tokens[i] = jwtUtils.generateJwtToken(new UsernamePasswordAuthenticationToken(userDetails, null));
+    }
+
+    // Every token is verified once, so each call misses.
+    JwtTokenCache missCache = new JwtTokenCache(jwtUtils, jwtRevocationRegistry, new SimpleMeterRegistry(),
+        tokens.length);
+    int[] next = { 0 };
+    measure(() -> missCache.getVerifiedClaims(tokens[next[0]++]), WARMUP);
+    double missNs = measure(() -> missCache.getVerifiedClaims(tokens[next[0]++]), ITERATIONS);
+
+    JwtTokenCache hitCache = new JwtTokenCache(jwtUtils, jwtRevocationRegistry, new SimpleMeterRegistry(), 100);
+    String token = tokens[0];
+    measure(() -> hitCache.getVerifiedClaims(token), WARMUP);
+    double hitNs = measure(() -> hitCache.getVerifiedClaims(token), ITERATIONS);
+
+    logger.info("JWT verification through the cache: miss {} ns/op, hit {} ns/op", Math.round(missNs),
+        Math.round(hitNs));
+    assertThat(missCache.getMissCount()).isEqualTo(tokens.length);
+    assertThat(hitCache.getHitCount()).isEqualTo(WARMUP + ITERATIONS - 1L);
+  }
+
+  private static double measure(Runnable operation, int iterations) {
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      operation.run();
+    }
+    return (System.nanoTime() - start) / (double) iterations;
+  }
+}
@@ -0,0 +1,99 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests {@link JwtUtils} class.
+ */
+public class JwtUtilsTest {
+
+  private final AuthErrorLogger authErrorLogger = new AuthErrorLogger(new SimpleMeterRegistry(), 10000);
+
+  private JwtUtils classUnderTest;
+
+  /**
+   * Instantiate classUnderTest before each test.
+   */
+  @BeforeEach
+  public void init() {
+    classUnderTest = new JwtUtils("testSecret", 60000, "1", "", authErrorLogger);
+  }
+
+  /**
+   * Tests that a principal rebuilt from the claims of a generated token matches
+   * the one the token was generated for.
+   */
+  @Test
+  public void getUserDetailsFromClaims_shouldRebuildPrincipal() {
+    UserDetailsImpl userDetails = UserDetailsImpl.builder().id(1L).username("john.doe@live.fr").firstName("John")
+        .lastName("Doe").admin(true).password("pwd").build();
+    String token = classUnderTest.generateJwtToken(new UsernamePasswordAuthenticationToken(userDetails, null));
+
+    UserDetailsImpl principal = classUnderTest.getUserDetailsFromClaims(classUnderTest.getClaimsFromJwtToken(token));
+
+    assertThat(principal).isEqualTo(userDetails);
+    assertThat(principal.getUsername()).isEqualTo("john.doe@live.fr");
+    assertThat(principal.getFirstName()).isEqualTo("John");
+    assertThat(principal.getLastName()).isEqualTo("Doe");
+    assertThat(principal.getAdmin()).isTrue();
+    assertThat(principal.getAuthorities()).extracting("authority").containsExactly("ROLE_ADMIN");
+    assertThat(principal.getPassword()).isNull();
+  }
+
+  /**
+   * Tests that getUserDetailsFromClaims method returns null for a token issued
+   * without the principal claims.
+   */
+  @Test
+  public void getUserDetailsFromClaims_shouldReturnNull_whenClaimsAreMissing() {
+    String token = Jwts.builder().setSubject("john.doe@live.fr").signWith(SignatureAlgorithm.HS512, "testSecret")
+        .compact();
+
+    Claims claims = classUnderTest.getClaimsFromJwtToken(token);
+
+    assertThat(claims).isNotNull();
+    assertThat(classUnderTest.getUserDetailsFromClaims(claims)).isNull();
+  }
+
+  /**
+   * Tests that tokens signed with a rotated out secret are still accepted, and
+   * that new tokens are signed with the current key and carry its id.
+   */
+  @Test
+  public void getClaimsFromJwtToken_shouldAcceptPreviousKey_afterRotation() {
+    UserDetailsImpl userDetails = UserDetailsImpl.builder().id(1L).username("john.doe@live.fr").build();
+    String oldToken = classUnderTest.generateJwtToken(new UsernamePasswordAuthenticationToken(userDetails, null));
+
+    JwtUtils rotated = new JwtUtils("newSecret", 60000, "2", "1:testSecret", authErrorLogger);
+    String newToken = rotated.generateJwtToken(new UsernamePasswordAuthenticationToken(userDetails, null));
+
+    assertThat(rotated.getClaimsFromJwtToken(oldToken)).isNotNull();
+    assertThat(rotated.getClaimsFromJwtToken(newToken)).isNotNull();
+    assertThat(Jwts.parser().setSigningKey("newSecret").parseClaimsJws(newToken).getHeader().getKeyId())
+        .isEqualTo("2");
+    assertThat(classUnderTest.getClaimsFromJwtToken(newToken)).isNull();
+  }
+
+  /**
+   * Tests that a token whose kid isn't known is rejected.
+   */
+  @Test
+  public void getClaimsFromJwtToken_shouldReturnNull_whenKeyIdIsUnknown() {
+    String token = Jwts.builder().setHeaderParam(JwsHeader.KEY_ID, "unknown").setSubject("john.doe@live.fr")
+        .signWith(SignatureAlgorithm.HS512, "testSecret").compact();
+
+    assertThat(classUnderTest.getClaimsFromJwtToken(token)).isNull();
+  }
+}
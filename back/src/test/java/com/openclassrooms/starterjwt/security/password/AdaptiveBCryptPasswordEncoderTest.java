@@ -0,0 +1,37 @@
+package com.openclassrooms.starterjwt.security.password;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ * Tests {@link AdaptiveBCryptPasswordEncoder} class.
+ */
+public class AdaptiveBCryptPasswordEncoderTest {
+
+  /**
+   * Tests that upgradeEncoding method returns true for hashes stored with a
+   * lower cost only, and false for the current or a higher cost.
+   */
+  @Test
+  public void upgradeEncoding_shouldReturnTrue_onlyWhenCostIsLower() {
+    AdaptiveBCryptPasswordEncoder classUnderTest = new AdaptiveBCryptPasswordEncoder(5);
+
+    assertThat(classUnderTest.upgradeEncoding(new BCryptPasswordEncoder(4).encode("pwd"))).isTrue();
+    assertThat(classUnderTest.upgradeEncoding(new BCryptPasswordEncoder(6).encode("pwd"))).isFalse();
+    assertThat(classUnderTest.upgradeEncoding(classUnderTest.encode("pwd"))).isFalse();
+    assertThat(classUnderTest.upgradeEncoding("notABCryptHash")).isFalse();
+    assertThat(classUnderTest.upgradeEncoding(null)).isFalse();
+  }
+
+  /**
+   * Tests that calibrated method picks a cost within the given bounds.
+   */
+  @Test
+  public void calibrated_shouldStayWithinBounds() {
+    assertThat(AdaptiveBCryptPasswordEncoder.calibrated(0, 4, 6).getStrength()).isEqualTo(4);
+    assertThat(AdaptiveBCryptPasswordEncoder.calibrated(Long.MAX_VALUE, 4, 6).getStrength()).isEqualTo(6);
+    assertThat(AdaptiveBCryptPasswordEncoder.calibrated(50, 4, 8).getStrength()).isBetween(4, 8);
+  }
+}
@@ -0,0 +1,97 @@
+package com.openclassrooms.starterjwt.security.password;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests {@link BoundedPasswordEncoder} class.
+ */
+public class BoundedPasswordEncoderTest {
+
+  private final CountDownLatch started = new CountDownLatch(1);
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private BoundedPasswordEncoder classUnderTest;
+
+  /**
+   * Creates an encoder with a single thread and no queue, wrapping a delegate
+   * that blocks on "slow" passwords until released.
+   */
+  @BeforeEach
+  public void init() {
+    meterRegistry = new SimpleMeterRegistry();
+    classUnderTest = new BoundedPasswordEncoder(new BlockingEncoder(), 1, 0, meterRegistry);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    release.countDown();
+    classUnderTest.destroy();
+  }
+
+  /**
+   * Tests that encode and matches methods return the delegate results and
+   * record the hashing time.
+   */
+  @Test
+  public void encodeAndMatches_shouldDelegate() {
+    assertThat(classUnderTest.encode("pwd")).isEqualTo("{hashed}pwd");
+    assertThat(classUnderTest.matches("pwd", "{hashed}pwd")).isTrue();
+    assertThat(classUnderTest.matches("other", "{hashed}pwd")).isFalse();
+
+    assertThat(meterRegistry.get("auth.password.hash").tag("operation", "encode").timer().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("auth.password.hash").tag("operation", "matches").timer().count()).isEqualTo(2);
+  }
+
+  /**
+   * Tests that a call fails fast with a PasswordEncoderSaturatedException when
+   * the pool is busy and the queue is full.
+   *
+   * @throws Exception if waiting for the blocked call fails.
+   */
+  @Test
+  public void encode_throwsIfSaturated() throws Exception {
+    CompletableFuture<String> blocked = CompletableFuture.supplyAsync(() -> classUnderTest.encode("slow"));
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+    assertThrows(PasswordEncoderSaturatedException.class, () -> classUnderTest.encode("pwd"));
+    assertThat(meterRegistry.get("auth.password.rejected").counter().count()).isEqualTo(1);
+
+    release.countDown();
+    assertThat(blocked.get(5, TimeUnit.SECONDS)).isEqualTo("{hashed}slow");
+  }
+
+  private class BlockingEncoder implements PasswordEncoder {
+    @Override
+    public String encode(CharSequence rawPassword) {
+      if ("slow".contentEquals(rawPassword)) {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return "{hashed}" + rawPassword;
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+      return encode(rawPassword).equals(encodedPassword);
+    }
+  }
+}
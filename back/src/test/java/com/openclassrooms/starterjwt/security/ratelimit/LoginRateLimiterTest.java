@@ -0,0 +1,66 @@
+package com.openclassrooms.starterjwt.security.ratelimit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests {@link LoginRateLimiter} class.
+ */
+public class LoginRateLimiterTest {
+
+  private final AtomicLong clock = new AtomicLong();
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private LoginRateLimiter classUnderTest;
+
+  /**
+   * Creates a limiter allowing 3 attempts per IP and 2 per account, each
+   * refilled at one token per second, on a manual clock.
+   */
+  @BeforeEach
+  public void init() {
+    meterRegistry = new SimpleMeterRegistry();
+    classUnderTest = new LoginRateLimiter(meterRegistry, 3, 60, 2, 60, 100, clock::get);
+  }
+
+  /**
+   * Tests that tryAcquire method throttles an account once its bucket is empty,
+   * and allows it again after a refill.
+   */
+  @Test
+  public void tryAcquire_shouldThrottleAccount_untilRefilled() {
+    assertThat(classUnderTest.tryAcquire("10.0.0.1", "john.doe@live.fr")).isZero();
+    assertThat(classUnderTest.tryAcquire("10.0.0.2", "John.Doe@live.fr")).isZero();
+
+    assertThat(classUnderTest.tryAcquire("10.0.0.3", "john.doe@live.fr")).isEqualTo(1000);
+    assertThat(classUnderTest.tryAcquire("10.0.0.3", "jane.doe@live.fr")).isZero();
+
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertThat(classUnderTest.tryAcquire("10.0.0.4", "john.doe@live.fr")).isZero();
+    assertThat(meterRegistry.get("auth.login.throttled").tag("key", "account").counter().count()).isEqualTo(1);
+  }
+
+  /**
+   * Tests that tryAcquire method throttles an IP whatever the account, without
+   * taking tokens from the accounts.
+   */
+  @Test
+  public void tryAcquire_shouldThrottleIp_withoutConsumingAccount() {
+    assertThat(classUnderTest.tryAcquire("10.0.0.1", "a@live.fr")).isZero();
+    assertThat(classUnderTest.tryAcquire("10.0.0.1", "b@live.fr")).isZero();
+    assertThat(classUnderTest.tryAcquire("10.0.0.1", "c@live.fr")).isZero();
+
+    assertThat(classUnderTest.tryAcquire("10.0.0.1", "d@live.fr")).isPositive();
+    assertThat(classUnderTest.tryAcquire("10.0.0.2", "d@live.fr")).isZero();
+    assertThat(classUnderTest.tryAcquire("10.0.0.3", "d@live.fr")).isZero();
+    assertThat(meterRegistry.get("auth.login.throttled").tag("key", "ip").counter().count()).isEqualTo(1);
+  }
+}
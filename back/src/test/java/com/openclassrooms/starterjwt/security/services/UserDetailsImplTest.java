@@ -71,6 +71,16 @@ public class UserDetailsImplTest {
     assertThat(classUnderTest.getAuthorities()).isNotNull().isEmpty();
   }
 
+  /**
+   * Tests that getAuthorities method grants ROLE_ADMIN to an admin.
+   */
+  @Test
+  public void getAuthorities_shouldReturnRoleAdmin_whenAdmin() {
+    UserDetailsImpl admin = UserDetailsImpl.builder().id(2L).username("yoga@studio.com").admin(true).build();
+
+    assertThat(admin.getAuthorities()).extracting("authority").containsExactly("ROLE_ADMIN");
+  }
+
   public Collection<? extends GrantedAuthority> getAuthorities() {        
     return new HashSet<GrantedAuthority>();
 }
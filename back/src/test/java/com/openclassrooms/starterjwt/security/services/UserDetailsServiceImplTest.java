@@ -12,6 +12,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -19,6 +20,8 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import com.openclassrooms.starterjwt.models.User;
 import com.openclassrooms.starterjwt.repository.UserRepository;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 /**
  * Tests {@link UserDetailsServiceImpl} class.
  */
@@ -28,6 +31,9 @@ public class UserDetailsServiceImplTest {
   @Mock
   private UserRepository userRepository;
 
+  @Spy
+  private UserDetailsCache userDetailsCache = new UserDetailsCache(new SimpleMeterRegistry(), 100, 60);
+
   @InjectMocks
   private UserDetailsServiceImpl classUnderTest;
 
@@ -49,6 +55,42 @@ public class UserDetailsServiceImplTest {
     verify(userRepository, times(1)).findByEmail(user.getEmail());
   }
 
+  /**
+   * Tests that loadUserByUsername method serves a user already loaded from the
+   * cache, without calling userRepository.findByEmail() again.
+   */
+  @Test
+  public void loadUserByUsername_shouldUseCache_whenUserAlreadyLoaded() {
+    User user = User.builder().id(1L).email("john.doe@live.fr").lastName("Doe").firstName("John").password("pwd")
+        .admin(true).build();
+
+    when(userRepository.findByEmail(user.getEmail())).thenReturn(Optional.of(user));
+
+    UserDetails first = classUnderTest.loadUserByUsername(user.getEmail());
+    UserDetails second = classUnderTest.loadUserByUsername(user.getEmail());
+
+    assertThat(second).isSameAs(first);
+    assertThat(((UserDetailsImpl) second).getAdmin()).isTrue();
+    verify(userRepository, times(1)).findByEmail(user.getEmail());
+  }
+
+  /**
+   * Tests that loadUserByUsername method reloads a user after its eviction.
+   */
+  @Test
+  public void loadUserByUsername_shouldReloadUser_whenEvicted() {
+    User user = User.builder().id(1L).email("john.doe@live.fr").lastName("Doe").firstName("John").password("pwd")
+        .admin(false).build();
+
+    when(userRepository.findByEmail(user.getEmail())).thenReturn(Optional.of(user));
+
+    classUnderTest.loadUserByUsername(user.getEmail());
+    userDetailsCache.evictUser(user.getId());
+    classUnderTest.loadUserByUsername(user.getEmail());
+
+    verify(userRepository, times(2)).findByEmail(user.getEmail());
+  }
+
   /**
    * Tests that the loadUserByUsername method throws a UsernameNotFoundException
    * if the user with the given email doesn't exist.
@@ -59,4 +101,21 @@ public class UserDetailsServiceImplTest {
     when(userRepository.findByEmail(email)).thenReturn(Optional.empty());
     assertThrows(UsernameNotFoundException.class, () -> classUnderTest.loadUserByUsername(email));
   }
+
+  /**
+   * Tests that updatePassword method stores the new password, evicts the cached
+   * principal and returns a principal holding the new password.
+   */
+  @Test
+  public void updatePassword_shouldStorePasswordAndEvictCache() {
+    UserDetailsImpl userDetails = UserDetailsImpl.builder().id(1L).username("john.doe@live.fr").firstName("John")
+        .lastName("Doe").admin(false).password("oldHash").build();
+
+    UserDetails updated = classUnderTest.updatePassword(userDetails, "newHash");
+
+    verify(userRepository, times(1)).updatePasswordByEmail("john.doe@live.fr", "newHash");
+    verify(userDetailsCache, times(1)).evict("john.doe@live.fr");
+    assertThat(updated.getPassword()).isEqualTo("newHash");
+    assertThat(updated).isEqualTo(userDetails);
+  }
 }
@@ -0,0 +1,113 @@
+package com.openclassrooms.starterjwt.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.openclassrooms.starterjwt.dto.SessionDto;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests {@link SessionCache} class.
+ */
+public class SessionCacheTest {
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private SessionCache classUnderTest;
+
+  /**
+   * Creates the cache under test before each test.
+   */
+  @BeforeEach
+  public void init() {
+    meterRegistry = new SimpleMeterRegistry();
+    classUnderTest = new SessionCache(meterRegistry, 100, 300);
+  }
+
+  /**
+   * Tests that get method loads a session once, then serves it from the cache
+   * until it is evicted.
+   */
+  @Test
+  public void get_shouldLoadOnce_untilEvicted() {
+    AtomicInteger loads = new AtomicInteger();
+
+    classUnderTest.get(1L, id -> dto(loads.incrementAndGet()));
+    SessionDto cached = classUnderTest.get(1L, id -> dto(loads.incrementAndGet()));
+    classUnderTest.evict(1L);
+    SessionDto reloaded = classUnderTest.get(1L, id -> dto(loads.incrementAndGet()));
+
+    assertThat(cached.getUsers()).hasSize(1);
+    assertThat(reloaded.getUsers()).hasSize(2);
+    assertThat(loads).hasValue(2);
+    assertThat(meterRegistry.get("cache.gets").tag("cache", "sessions").tag("result", "hit").functionCounter()
+        .count()).isEqualTo(1);
+  }
+
+  /**
+   * Tests that a reader never gets a participant list older than the last
+   * write completed before its read started, while a writer keeps adding
+   * participants and slow readers keep loading.
+   *
+   * @throws Exception if a reader fails.
+   */
+  @Test
+  public void get_shouldNeverServeParticipantsOlderThanLastWrite() throws Exception {
+    AtomicInteger database = new AtomicInteger();
+    AtomicInteger lastCommitted = new AtomicInteger();
+    AtomicBoolean writing = new AtomicBoolean(true);
+
+    ExecutorService readers = Executors.newFixedThreadPool(4);
+    List<Future<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      results.add(readers.submit(() -> {
+        int stale = 0;
+        while (writing.get()) {
+          int committedBeforeRead = lastCommitted.get();
+          SessionDto sessionDto = classUnderTest.get(1L, id -> {
+            SessionDto loaded = dto(database.get());
+            Thread.yield();
+            return loaded;
+          });
+          if (sessionDto.getUsers().size() < committedBeforeRead) {
+            stale++;
+          }
+        }
+        return stale;
+      }));
+    }
+
+    for (int participants = 1; participants <= 2000; participants++) {
+      database.set(participants);
+      classUnderTest.evict(1L);
+      lastCommitted.set(participants);
+    }
+    writing.set(false);
+
+    readers.shutdown();
+    assertThat(readers.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    for (Future<Integer> result : results) {
+      assertThat(result.get()).isZero();
+    }
+  }
+
+  private static SessionDto dto(int participants) {
+    SessionDto sessionDto = new SessionDto();
+    sessionDto.setId(1L);
+    sessionDto.setUsers(new ArrayList<>(Collections.nCopies(participants, 1L)));
+    return sessionDto;
+  }
+}
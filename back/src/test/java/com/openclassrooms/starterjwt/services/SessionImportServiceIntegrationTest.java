@@ -0,0 +1,126 @@
+package com.openclassrooms.starterjwt.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.openclassrooms.starterjwt.dto.SessionDto;
+import com.openclassrooms.starterjwt.models.Teacher;
+import com.openclassrooms.starterjwt.repository.SessionRepository;
+import com.openclassrooms.starterjwt.repository.TeacherRepository;
+
+/**
+ * Imports sessions into an embedded database.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:session-import;DB_CLOSE_DELAY=-1",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.flyway.enabled=false",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+    "spring.jpa.show-sql=false"
+})
+public class SessionImportServiceIntegrationTest {
+
+  @Autowired
+  private SessionImportService classUnderTest;
+
+  @Autowired
+  private SessionRepository sessionRepository;
+
+  @Autowired
+  private TeacherRepository teacherRepository;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private Long teacherId;
+
+  /**
+   * Stores a teacher, without sessions, before each test.
+   */
+  @BeforeEach
+  public void init() {
+    sessionRepository.deleteAll();
+    teacherId = teacherRepository.save(Teacher.builder().firstName("Margot").lastName("DELAHAYE").build()).getId();
+  }
+
+  /**
+   * Tests that the sessions of each chunk are detached once saved, even when
+   * the entity manager outlives the chunk's transaction, as it would spanning
+   * a whole request.
+   */
+  @Test
+  public void createAll_shouldLeavePersistenceContextEmptyAfterEachChunk() {
+    List<SessionDto> sessions = new ArrayList<>();
+    for (int i = 0; i < SessionImportService.CHUNK_SIZE + 1; i++) {
+      sessions.add(session("Session " + i));
+    }
+
+    EntityManager entityManager = entityManagerFactory.createEntityManager();
+    TransactionSynchronizationManager.bindResource(entityManagerFactory, new EntityManagerHolder(entityManager));
+    try {
+      assertThat(classUnderTest.createAll(sessions.subList(0, SessionImportService.CHUNK_SIZE)).getImported())
+          .isEqualTo(SessionImportService.CHUNK_SIZE);
+      assertThat(entityManager.unwrap(Session.class).getStatistics().getEntityCount()).isZero();
+
+      assertThat(classUnderTest.createAll(sessions).getImported()).isEqualTo(SessionImportService.CHUNK_SIZE + 1);
+      assertThat(entityManager.unwrap(Session.class).getStatistics().getEntityCount()).isZero();
+    } finally {
+      TransactionSynchronizationManager.unbindResource(entityManagerFactory);
+      entityManager.close();
+    }
+
+    assertThat(sessionRepository.count()).isEqualTo(2L * SessionImportService.CHUNK_SIZE + 1);
+  }
+
+  /**
+   * Tests that a chunk the database refuses is saved again row by row, so that
+   * only the offending rows are rejected, with their numbers.
+   */
+  @Test
+  public void createAll_shouldRejectOnlyFailingRows_whenChunkFails() {
+    // Stands for a constraint the rows can't be checked against beforehand.
+    jdbcTemplate.execute("ALTER TABLE SESSIONS ADD CONSTRAINT CHK_NOT_REJECTED CHECK (name <> 'Rejected')");
+    try {
+      SessionImportService.ImportReport report = classUnderTest.createAll(Arrays.asList(
+          session("Session 1"), session("Rejected"), session("Session 3")));
+
+      assertThat(report.getImported()).isEqualTo(2);
+      assertThat(report.getRejected()).isEqualTo(1);
+      assertThat(report.getErrors()).containsExactly("Row 2: Error: Session could not be saved");
+    } finally {
+      jdbcTemplate.execute("ALTER TABLE SESSIONS DROP CONSTRAINT CHK_NOT_REJECTED");
+    }
+
+    assertThat(sessionRepository.count()).isEqualTo(2);
+  }
+
+  private SessionDto session(String name) {
+    SessionDto session = new SessionDto();
+    session.setName(name);
+    session.setDate(new Date());
+    session.setTeacher_id(teacherId);
+    session.setDescription("Description");
+    return session;
+  }
+}
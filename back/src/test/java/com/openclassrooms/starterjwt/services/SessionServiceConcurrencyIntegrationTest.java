@@ -0,0 +1,135 @@
+package com.openclassrooms.starterjwt.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import com.openclassrooms.starterjwt.dto.SessionDto;
+import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.repository.SessionRepository;
+import com.openclassrooms.starterjwt.repository.UserRepository;
+
+/**
+ * Checks that concurrent participation changes and updates of a session,
+ * against an embedded database, don't lose each other.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:session-concurrency;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.datasource.hikari.maximum-pool-size=16",
+    "spring.flyway.enabled=false",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+    "spring.jpa.show-sql=false"
+})
+public class SessionServiceConcurrencyIntegrationTest {
+  private static final Logger logger = LoggerFactory.getLogger(SessionServiceConcurrencyIntegrationTest.class);
+
+  private static final int USERS = 300;
+
+  private static final int THREADS = 16;
+
+  @Autowired
+  private SessionService sessionService;
+
+  @Autowired
+  private SessionRepository sessionRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  private Long sessionId;
+
+  private List<Long> userIds;
+
+  /**
+   * Stores a session without participants and USERS users before each test.
+   */
+  @BeforeEach
+  public void init() {
+    sessionRepository.deleteAll();
+    userRepository.deleteAll();
+
+    List<User> users = new ArrayList<>();
+    for (int i = 0; i < USERS; i++) {
+      users.add(User.builder().email("user" + i + "@live.fr").firstName("First").lastName("Last").password("pwd")
+          .build());
+    }
+    userIds = new ArrayList<>();
+    userRepository.saveAll(users).forEach(user -> userIds.add(user.getId()));
+
+    sessionId = sessionRepository.save(Session.builder().name("Session").description("Description")
+        .date(new Date()).users(new ArrayList<>()).build()).getId();
+  }
+
+  /**
+   * Tests that every one of hundreds of simultaneous joins is recorded and
+   * bumps the version, and logs the throughput.
+   *
+   * @throws Exception if a join fails.
+   */
+  @Test
+  public void participate_shouldNotLoseConcurrentJoins() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> joins = new ArrayList<>();
+    try {
+      for (Long userId : userIds) {
+        joins.add(executor.submit(() -> {
+          start.await();
+          sessionService.participate(sessionId, userId);
+          return null;
+        }));
+      }
+
+      long startedAt = System.nanoTime();
+      start.countDown();
+      for (Future<?> join : joins) {
+        join.get(60, TimeUnit.SECONDS);
+      }
+      double seconds = (System.nanoTime() - startedAt) / 1e9;
+
+      logger.info("{} concurrent joins on {} threads in {} ms, {} joins/s", USERS, THREADS,
+          Math.round(seconds * 1000), Math.round(USERS / seconds));
+    } finally {
+      executor.shutdownNow();
+    }
+
+    SessionDto session = sessionService.getDtoById(sessionId);
+    assertThat(session.getUsers()).hasSize(USERS);
+    assertThat(session.getVersion()).isEqualTo((long) USERS);
+  }
+
+  /**
+   * Tests that an update built before a participation change is rejected
+   * instead of overwriting the participants.
+   */
+  @Test
+  public void update_shouldRejectUpdateBuiltFromStaleRead() {
+    Session stale = sessionRepository.findById(sessionId).get();
+
+    sessionService.participate(sessionId, userIds.get(0));
+
+    stale.setName("Renamed");
+    assertThrows(OptimisticLockingFailureException.class, () -> sessionService.update(sessionId, stale));
+    assertThat(sessionService.getDtoById(sessionId).getUsers()).hasSize(1);
+  }
+}
@@ -2,28 +2,48 @@ package com.openclassrooms.starterjwt.services;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.willDoNothing;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 
+import javax.persistence.EntityManager;
+
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.openclassrooms.starterjwt.dto.SessionDto;
 import com.openclassrooms.starterjwt.exception.BadRequestException;
 import com.openclassrooms.starterjwt.exception.NotFoundException;
+import com.openclassrooms.starterjwt.mapper.SessionMapper;
 import com.openclassrooms.starterjwt.models.Session;
-import com.openclassrooms.starterjwt.models.User;
 import com.openclassrooms.starterjwt.repository.SessionRepository;
 import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.services.SessionService.Participation;
+import com.openclassrooms.starterjwt.services.SessionService.ParticipationOutcome;
 
 /**
  * Class that tests {@link SessionService}.
@@ -37,6 +57,21 @@ public class SessionServiceTest {
   @Mock
   private UserRepository userRepository;
 
+  @Mock
+  private SessionCache sessionCache;
+
+  @Mock
+  private SessionMapper sessionMapper;
+
+  @Mock
+  private EntityManager entityManager;
+
+  @Mock
+  private JdbcTemplate jdbcTemplate;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
   @InjectMocks
   private SessionService classUnderTest;
 
@@ -83,6 +118,70 @@ public class SessionServiceTest {
     assertThat(sessions.size()).isEqualTo(2);
   }
 
+  /**
+   * Tests that the call to findPage method
+   * starts at the given date without cursor, and right
+   * after the cursor position otherwise.
+   */
+  @Test
+  public void findPage_shouldQueryAfterCursorPosition() {
+    Date from = new Date(1000L);
+    Date to = new Date(5000L);
+    Date afterDate = new Date(2000L);
+
+    classUnderTest.findPage(from, to, null, null, 10);
+    classUnderTest.findPage(from, to, afterDate, 7L, 10);
+
+    verify(sessionRepository, times(1)).findPageAfter(from, 0L, to, PageRequest.of(0, 10));
+    verify(sessionRepository, times(1)).findPageAfter(afterDate, 7L, to, PageRequest.of(0, 10));
+  }
+
+  /**
+   * Tests that the call to findPage method
+   * maps the sessions with their participants' ids,
+   * read for the whole page in one query.
+   */
+  @Test
+  public void findPage_shouldReadParticipantsOfThePageAtOnce() {
+    Session first = Session.builder().id(1L).build();
+    Session second = Session.builder().id(2L).build();
+    SessionDto firstDto = new SessionDto();
+    firstDto.setId(1L);
+    SessionDto secondDto = new SessionDto();
+    secondDto.setId(2L);
+    when(sessionRepository.findPageAfter(any(), any(), any(), any())).thenReturn(Arrays.asList(first, second));
+    when(sessionRepository.findParticipants(Arrays.asList(1L, 2L)))
+        .thenReturn(Arrays.asList(new Object[] { 1L, 3L }, new Object[] { 1L, 4L }));
+    when(sessionMapper.toDto(first, Arrays.asList(3L, 4L))).thenReturn(firstDto);
+    when(sessionMapper.toDto(second, Collections.emptyList())).thenReturn(secondDto);
+
+    assertThat(classUnderTest.findPage(null, null, null, null, 10)).containsExactly(firstDto, secondDto);
+  }
+
+  /**
+   * Tests that the call to findPageTag method
+   * tags the page read with the same position as findPage
+   * as pageTag does its DTOs, and changes with a version.
+   */
+  @Test
+  public void findPageTag_shouldMatchTagOfThePage() {
+    Date from = new Date(1000L);
+    SessionDto first = new SessionDto();
+    first.setId(1L);
+    first.setVersion(0L);
+    SessionDto second = new SessionDto();
+    second.setId(2L);
+    second.setVersion(3L);
+    when(sessionRepository.findPageVersionsAfter(from, 0L, new Date(253402300799000L), PageRequest.of(0, 10)))
+        .thenReturn(Arrays.asList(new Object[] { 1L, 0L }, new Object[] { 2L, 3L }));
+
+    String tag = classUnderTest.findPageTag(from, null, null, null, 10);
+
+    assertThat(tag).isEqualTo(SessionService.pageTag(Arrays.asList(first, second)));
+    second.setVersion(4L);
+    assertThat(tag).isNotEqualTo(SessionService.pageTag(Arrays.asList(first, second)));
+  }
+
   /**
    * Tests that the call to getById method
    * returns a session and use sessionRepository.findById()
@@ -105,6 +204,7 @@ public class SessionServiceTest {
   public void update_shouldUpdateId() {
     Session session = new Session();
     session.setId(1L);
+    when(sessionRepository.findVersionById(2L)).thenReturn(Optional.of(0L));
     when(sessionRepository.save(session)).thenReturn(session);
 
     Session returnedSession = classUnderTest.update(2L, session);
@@ -114,6 +214,52 @@ public class SessionServiceTest {
     assertThat(returnedSession.getId()).isEqualTo(2L);
   }
 
+  /**
+   * Tests that the call to update method
+   * evicts the cached session.
+   */
+  @Test
+  public void update_shouldEvictCachedSession() {
+    Session session = new Session();
+    when(sessionRepository.findVersionById(2L)).thenReturn(Optional.of(0L));
+    when(sessionRepository.save(session)).thenReturn(session);
+
+    classUnderTest.update(2L, session);
+
+    verify(sessionCache, times(1)).evict(2L);
+  }
+
+  /**
+   * Tests that the call to update method
+   * keeps the version given by the client, so that
+   * a stale one is rejected on save.
+   */
+  @Test
+  public void update_shouldKeepGivenVersion() {
+    Session session = new Session();
+    session.setVersion(3L);
+    when(sessionRepository.save(session)).thenThrow(new ObjectOptimisticLockingFailureException(Session.class, 2L));
+
+    assertThrows(OptimisticLockingFailureException.class, () -> classUnderTest.update(2L, session));
+
+    verify(sessionRepository, never()).findVersionById(2L);
+    assertThat(session.getVersion()).isEqualTo(3L);
+  }
+
+  /**
+   * Tests that the call to update method
+   * throws a NotFoundException if the session
+   * doesn't exist.
+   */
+  @Test
+  public void update_throwsIfSessionDoesntExist() {
+    when(sessionRepository.findVersionById(2L)).thenReturn(Optional.empty());
+
+    assertThrows(NotFoundException.class, () -> classUnderTest.update(2L, new Session()));
+
+    verify(sessionRepository, never()).save(any(Session.class));
+  }
+
   /**
    * Tests that the call to participate method
    * throws a BadRequestException if the user already
@@ -121,14 +267,22 @@ public class SessionServiceTest {
    */
   @Test
   public void participate_throwsIfAlreadyParticipate() {
-    User user = new User();
-    user.setId(1L);
+    when(jdbcTemplate.update(SessionService.ADD_PARTICIPANT, 1L, 1L, 1L, 1L)).thenReturn(0);
+    when(sessionRepository.existsById(1L)).thenReturn(true);
+    when(userRepository.existsById(1L)).thenReturn(true);
 
-    Session session = new Session();
-    session.setUsers(Arrays.asList(user));
+    assertThrows(BadRequestException.class, () -> classUnderTest.participate(1L, 1L));
+  }
 
-    when(sessionRepository.findById(1L)).thenReturn(Optional.of(session));
-    when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+  /**
+   * Tests that the call to participate method
+   * throws a BadRequestException if a concurrent request
+   * added the same participant first.
+   */
+  @Test
+  public void participate_throwsIfDuplicateKey() {
+    when(jdbcTemplate.update(SessionService.ADD_PARTICIPANT, 1L, 1L, 1L, 1L))
+        .thenThrow(new DataIntegrityViolationException("duplicate"));
 
     assertThrows(BadRequestException.class, () -> classUnderTest.participate(1L, 1L));
   }
@@ -140,8 +294,8 @@ public class SessionServiceTest {
    */
   @Test
   public void participate_throwsIfSessionDoesntExist() {
-    when(sessionRepository.findById(1L)).thenReturn(Optional.empty());
-    when(userRepository.findById(1L)).thenReturn(Optional.of(new User()));
+    when(jdbcTemplate.update(SessionService.ADD_PARTICIPANT, 1L, 1L, 1L, 1L)).thenReturn(0);
+    when(sessionRepository.existsById(1L)).thenReturn(false);
 
     assertThrows(NotFoundException.class, () -> classUnderTest.participate(1L, 1L));
   }
@@ -153,37 +307,62 @@ public class SessionServiceTest {
    */
   @Test
   public void participate_throwsIfUserDoesntExist() {
-    when(sessionRepository.findById(1L)).thenReturn(Optional.of(new Session()));
-    when(userRepository.findById(1L)).thenReturn(Optional.empty());
+    when(jdbcTemplate.update(SessionService.ADD_PARTICIPANT, 1L, 1L, 1L, 1L)).thenReturn(0);
+    when(sessionRepository.existsById(1L)).thenReturn(true);
+    when(userRepository.existsById(1L)).thenReturn(false);
 
     assertThrows(NotFoundException.class, () -> classUnderTest.participate(1L, 1L));
   }
 
   /**
    * Tests that the call to participate method
-   * adds a user to a session and use sessionRepository.findById(),
-   * sessionRepository.save(), userRepository.findById().
+   * adds a user to a session with a single insert,
+   * without loading the session.
    */
   @Test
   public void participate_shouldAddUserToSession() {
-    User user = new User();
-    user.setId(1L);
+    when(jdbcTemplate.update(SessionService.ADD_PARTICIPANT, 1L, 1L, 1L, 1L)).thenReturn(1);
 
-    Session session = new Session();
-    session.setUsers(new ArrayList<>());
+    classUnderTest.participate(1L, 1L);
 
-    when(sessionRepository.findById(1L)).thenReturn(Optional.of(session));
-    when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+    verify(jdbcTemplate, times(1)).update(SessionService.ADD_PARTICIPANT, 1L, 1L, 1L, 1L);
+    verify(sessionRepository, times(1)).incrementVersion(1L);
+    verify(sessionRepository, never()).findById(1L);
+    verify(sessionRepository, never()).save(any(Session.class));
+    verify(sessionCache, times(1)).evict(1L);
+  }
+  
+  /**
+   * Tests that the call to participate method
+   * runs again after losing a lock race.
+   */
+  @Test
+  public void participate_shouldRetryOnConcurrencyFailure() {
+    when(jdbcTemplate.update(SessionService.ADD_PARTICIPANT, 1L, 1L, 1L, 1L))
+        .thenThrow(new CannotAcquireLockException("deadlock"))
+        .thenReturn(1);
 
     classUnderTest.participate(1L, 1L);
 
-    assertThat(session.getUsers()).contains(user);
+    verify(jdbcTemplate, times(2)).update(SessionService.ADD_PARTICIPANT, 1L, 1L, 1L, 1L);
+    verify(sessionRepository, times(1)).incrementVersion(1L);
+  }
 
-    verify(sessionRepository, times(1)).findById(1L);
-    verify(userRepository, times(1)).findById(1L);
-    verify(sessionRepository, times(1)).save(session);
+  /**
+   * Tests that the call to participate method
+   * gives up after a bounded number of attempts.
+   */
+  @Test
+  public void participate_shouldGiveUpAfterMaxAttempts() {
+    when(jdbcTemplate.update(SessionService.ADD_PARTICIPANT, 1L, 1L, 1L, 1L))
+        .thenThrow(new CannotAcquireLockException("deadlock"));
+
+    assertThrows(CannotAcquireLockException.class, () -> classUnderTest.participate(1L, 1L));
+
+    verify(jdbcTemplate, times(SessionService.MAX_PARTICIPATION_ATTEMPTS))
+        .update(SessionService.ADD_PARTICIPANT, 1L, 1L, 1L, 1L);
   }
-  
+
   /**
    * Tests that the call to noLongerParticipate method
    * throws a NotFoundException if the session doesn't
@@ -191,7 +370,9 @@ public class SessionServiceTest {
    */
   @Test
   public void noLongerParticipate_throwsIfSessionDoesntExist() {
-    when(sessionRepository.findById(1L)).thenReturn(Optional.empty());
+    when(jdbcTemplate.update(SessionService.REMOVE_PARTICIPANT, 1L, 1L)).thenReturn(0);
+    when(sessionRepository.existsById(1L)).thenReturn(false);
+
     assertThrows(NotFoundException.class, () -> classUnderTest.noLongerParticipate(1L, 1L));
   }
   
@@ -202,35 +383,50 @@ public class SessionServiceTest {
    */
   @Test
   public void noLongerParticipate_throwsIfNotParticipating() {
-    User user = new User();
-    user.setId(1L);
-
-    Session session = new Session();
-    session.setUsers(new ArrayList<>());
-
-    when(sessionRepository.findById(1L)).thenReturn(Optional.of(session));
+    when(jdbcTemplate.update(SessionService.REMOVE_PARTICIPANT, 1L, 1L)).thenReturn(0);
+    when(sessionRepository.existsById(1L)).thenReturn(true);
 
     assertThrows(BadRequestException.class, () -> classUnderTest.noLongerParticipate(1L, 1L));
   }
   
   /**
    * Tests that the call to noLongerParticipate method
-   * removes a user from the session and uses sessionRepository.save()
+   * removes a user from the session with a single delete,
+   * without loading the session.
    */
   @Test
   public void noLongerParticipate_shouldRemoveUserFromSession() {
-    User user = new User();
-    user.setId(1L);
-    User user2 = new User();
-    user2.setId(2L);
-    Session session = new Session();
-    session.setUsers(Arrays.asList(user2, user));
-
-    when(sessionRepository.findById(1L)).thenReturn(Optional.of(session));
+    when(jdbcTemplate.update(SessionService.REMOVE_PARTICIPANT, 1L, 1L)).thenReturn(1);
     
     classUnderTest.noLongerParticipate(1L, 1L);
     
-    verify(sessionRepository, times(1)).save(session);
-    assertThat(session.getUsers()).doesNotContain(user);
+    verify(jdbcTemplate, times(1)).update(SessionService.REMOVE_PARTICIPANT, 1L, 1L);
+    verify(sessionRepository, times(1)).incrementVersion(1L);
+    verify(sessionRepository, never()).save(any(Session.class));
+    verify(sessionCache, times(1)).evict(1L);
+  }
+
+  /**
+   * Tests that the call to participateAll method
+   * validates every pair with set-based queries and
+   * only inserts the new participations.
+   */
+  @Test
+  public void participateAll_shouldReportEachPair() {
+    when(sessionRepository.findExistingIds(anyCollection())).thenReturn(new HashSet<>(Arrays.asList(1L)));
+    when(userRepository.findExistingIds(anyCollection())).thenReturn(new HashSet<>(Arrays.asList(1L, 2L, 3L)));
+    when(sessionRepository.findParticipations(anyCollection(), anyCollection()))
+        .thenReturn(Collections.singletonList(new Object[] { 1, 3 }));
+
+    List<ParticipationOutcome> outcomes = classUnderTest.participateAll(Arrays.asList(
+        new Participation(1L, 1L), new Participation(1L, 2L), new Participation(1L, 1L),
+        new Participation(1L, 3L), new Participation(2L, 1L), new Participation(1L, 4L)));
+
+    assertThat(outcomes).containsExactly(ParticipationOutcome.ENROLLED, ParticipationOutcome.ENROLLED,
+        ParticipationOutcome.ALREADY_PARTICIPATING, ParticipationOutcome.ALREADY_PARTICIPATING,
+        ParticipationOutcome.UNKNOWN_SESSION, ParticipationOutcome.UNKNOWN_USER);
+    verify(jdbcTemplate, times(1)).batchUpdate(anyString(),
+        eq(Arrays.asList(new Participation(1L, 1L), new Participation(1L, 2L))), anyInt(), any());
+    verify(sessionCache, times(1)).evict(1L);
   }
 }
@@ -0,0 +1,141 @@
+package com.openclassrooms.starterjwt.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.openclassrooms.starterjwt.dto.TeacherDto;
+import com.openclassrooms.starterjwt.mapper.TeacherMapper;
+import com.openclassrooms.starterjwt.models.Teacher;
+
+/**
+ * Tests {@link TeacherCatalogue} class.
+ */
+@ExtendWith(MockitoExtension.class)
+public class TeacherCatalogueTest {
+
+  @Mock
+  private TeacherService teacherService;
+
+  @Mock
+  private TeacherMapper teacherMapper;
+
+  private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+  private TeacherCatalogue classUnderTest;
+
+  private List<Teacher> teachers;
+
+  private List<TeacherDto> teacherDtos;
+
+  /**
+   * Creates the catalogue of a teacher named John Doe with id 1.
+   */
+  @BeforeEach
+  public void init() {
+    classUnderTest = new TeacherCatalogue(teacherService, teacherMapper, objectMapper);
+
+    teachers = Arrays.asList(Teacher.builder().id(1L).lastName("Doe").firstName("John").build());
+    TeacherDto teacherDto = new TeacherDto();
+    teacherDto.setId(1L);
+    teacherDto.setLastName("Doe");
+    teacherDto.setFirstName("John");
+    teacherDtos = Arrays.asList(teacherDto);
+  }
+
+  /**
+   * Tests that the snapshot holds the teachers encoded as JSON, plain and
+   * gzipped, with the digest of the JSON, and is built once.
+   */
+  @Test
+  public void get_shouldBuildSnapshotOnce() throws IOException {
+    when(teacherService.catalogueVersion()).thenReturn("1-1-0");
+    when(teacherService.findAll()).thenReturn(teachers);
+    when(teacherMapper.toDto(teachers)).thenReturn(teacherDtos);
+
+    TeacherCatalogue.Snapshot snapshot = classUnderTest.get();
+
+    assertThat(classUnderTest.get()).isSameAs(snapshot);
+    assertThat(snapshot.getVersion()).isEqualTo("1-1-0");
+    assertThat(snapshot.getJson()).isEqualTo(objectMapper.writeValueAsBytes(teacherDtos));
+    assertThat(snapshot.getDigest()).isEqualTo(DigestUtils.md5DigestAsHex(snapshot.getJson()));
+    try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(snapshot.getGzippedJson()))) {
+      assertThat(StreamUtils.copyToByteArray(input)).isEqualTo(snapshot.getJson());
+    }
+    verify(teacherService, times(1)).findAll();
+  }
+
+  /**
+   * Tests that a refresh keeps the snapshot while the teachers are unchanged,
+   * and rebuilds it once they change.
+   */
+  @Test
+  public void refresh_shouldRebuildSnapshot_whenTeachersChanged() {
+    when(teacherService.catalogueVersion()).thenReturn("1-1-0");
+    when(teacherService.findAll()).thenReturn(teachers);
+    when(teacherMapper.toDto(teachers)).thenReturn(teacherDtos);
+    TeacherCatalogue.Snapshot snapshot = classUnderTest.get();
+
+    assertThat(classUnderTest.refresh()).isSameAs(snapshot);
+
+    when(teacherService.catalogueVersion()).thenReturn("2-3-0");
+    TeacherCatalogue.Snapshot refreshed = classUnderTest.refresh();
+
+    assertThat(refreshed.getVersion()).isEqualTo("2-3-0");
+    assertThat(classUnderTest.get()).isSameAs(refreshed);
+  }
+
+  /**
+   * Tests that two lists read under the same version, e.g. two edits within the
+   * same second, get different digests.
+   */
+  @Test
+  public void refresh_shouldChangeDigest_whenTeachersChangedUnderSameVersion() {
+    TeacherDto renamed = new TeacherDto();
+    renamed.setId(1L);
+    renamed.setLastName("Doe");
+    renamed.setFirstName("Jane");
+    List<TeacherDto> renamedDtos = Arrays.asList(renamed);
+    when(teacherService.catalogueVersion()).thenReturn("1-1-0");
+    when(teacherService.findAll()).thenReturn(teachers);
+    when(teacherMapper.toDto(teachers)).thenReturn(teacherDtos, renamedDtos);
+    TeacherCatalogue.Snapshot snapshot = classUnderTest.get();
+
+    classUnderTest.invalidate();
+
+    assertThat(classUnderTest.get().getVersion()).isEqualTo(snapshot.getVersion());
+    assertThat(classUnderTest.get().getDigest()).isNotEqualTo(snapshot.getDigest());
+  }
+
+  /**
+   * Tests that the snapshot is rebuilt on the next read once invalidated.
+   */
+  @Test
+  public void invalidate_shouldRebuildSnapshotOnNextRead() {
+    when(teacherService.catalogueVersion()).thenReturn("1-1-0");
+    when(teacherService.findAll()).thenReturn(teachers);
+    when(teacherMapper.toDto(teachers)).thenReturn(teacherDtos);
+    TeacherCatalogue.Snapshot snapshot = classUnderTest.get();
+
+    classUnderTest.invalidate();
+
+    assertThat(classUnderTest.get()).isNotSameAs(snapshot);
+    verify(teacherService, times(2)).findAll();
+  }
+}
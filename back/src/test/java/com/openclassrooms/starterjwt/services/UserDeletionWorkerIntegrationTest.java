@@ -0,0 +1,132 @@
+package com.openclassrooms.starterjwt.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.openclassrooms.starterjwt.exception.NotFoundException;
+import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.models.UserDeletion;
+import com.openclassrooms.starterjwt.repository.SessionRepository;
+import com.openclassrooms.starterjwt.repository.UserDeletionRepository;
+import com.openclassrooms.starterjwt.repository.UserRepository;
+
+/**
+ * Deletes a user taking part in many sessions from an embedded database, and
+ * runs the purge by hand rather than on its schedule.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:user-deletion;DB_CLOSE_DELAY=-1",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.flyway.enabled=false",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+    "spring.jpa.show-sql=false",
+    "oc.app.userDeletion.pollMs=3600000",
+    "oc.app.userDeletion.batchSize=100"
+})
+public class UserDeletionWorkerIntegrationTest {
+  private static final int SESSIONS = 250;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UserDeletionWorker classUnderTest;
+
+  @Autowired
+  private SessionService sessionService;
+
+  @Autowired
+  private SessionRepository sessionRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserDeletionRepository userDeletionRepository;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private User deleted;
+
+  private User kept;
+
+  /**
+   * Stores SESSIONS sessions, each with the same 2 participants, before each
+   * test.
+   */
+  @BeforeEach
+  public void init() {
+    sessionRepository.deleteAll();
+    userDeletionRepository.deleteAll();
+    jdbcTemplate.update("DELETE FROM USERS");
+
+    List<User> users = userRepository.saveAll(Arrays.asList(
+        User.builder().email("john.doe@live.fr").firstName("John").lastName("Doe").password("pwd").build(),
+        User.builder().email("jane.doe@live.fr").firstName("Jane").lastName("Doe").password("pwd").build()));
+    deleted = users.get(0);
+    kept = users.get(1);
+
+    List<Session> sessions = new ArrayList<>();
+    for (int i = 0; i < SESSIONS; i++) {
+      sessions.add(Session.builder().name("Session " + i).description("Description").date(new Date())
+          .users(new ArrayList<>(users)).build());
+    }
+    sessionRepository.saveAll(sessions);
+  }
+
+  /**
+   * Tests that a deleted user is hidden at once, then purged with every one of
+   * its participations, in batches, leaving the other participants alone.
+   */
+  @Test
+  public void purgePending_shouldPurgeUserAndParticipations() {
+    UserDeletion deletion = userService.delete(deleted.getId());
+
+    assertThat(userService.findById(deleted.getId())).isNull();
+    assertThat(userRepository.findByEmail(deleted.getEmail())).isEmpty();
+    assertThat(userService.findDeletion(deletion.getId()).getStatus()).isEqualTo(UserDeletion.Status.PENDING);
+
+    classUnderTest.purgePending();
+
+    UserDeletion done = userService.findDeletion(deletion.getId());
+    assertThat(done.getStatus()).isEqualTo(UserDeletion.Status.DONE);
+    assertThat(done.getPurgedParticipations()).isEqualTo(SESSIONS);
+    assertThat(count("SELECT COUNT(*) FROM USERS WHERE id = ?", deleted.getId())).isZero();
+    assertThat(count("SELECT COUNT(*) FROM PARTICIPATE WHERE user_id = ?", deleted.getId())).isZero();
+    assertThat(count("SELECT COUNT(*) FROM PARTICIPATE WHERE user_id = ?", kept.getId())).isEqualTo(SESSIONS);
+    assertThat(count("SELECT COUNT(*) FROM SESSIONS WHERE version = 1")).isEqualTo(SESSIONS);
+  }
+
+  /**
+   * Tests that a deleted user can no longer be enrolled while its purge is
+   * pending.
+   */
+  @Test
+  public void delete_shouldPreventNewParticipations() {
+    Long sessionId = sessionRepository.save(Session.builder().name("Session").description("Description")
+        .date(new Date()).users(new ArrayList<>()).build()).getId();
+
+    userService.delete(deleted.getId());
+
+    assertThrows(NotFoundException.class, () -> sessionService.participate(sessionId, deleted.getId()));
+  }
+
+  private long count(String sql, Object... args) {
+    return jdbcTemplate.queryForObject(sql, Long.class, args);
+  }
+}
@@ -0,0 +1,117 @@
+package com.openclassrooms.starterjwt.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.openclassrooms.starterjwt.models.UserDeletion;
+import com.openclassrooms.starterjwt.repository.UserDeletionRepository;
+import com.openclassrooms.starterjwt.security.jwt.JwtRevocationRegistry;
+import com.openclassrooms.starterjwt.security.services.UserDetailsCache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Class that tests {@link UserDeletionWorker}.
+ */
+@ExtendWith(MockitoExtension.class)
+public class UserDeletionWorkerTest {
+  private static final int MAX_ATTEMPTS = 2;
+
+  @Mock
+  private UserDeletionRepository userDeletionRepository;
+
+  @Mock
+  private JdbcTemplate jdbcTemplate;
+
+  @Mock
+  private SessionCache sessionCache;
+
+  @Mock
+  private JwtRevocationRegistry jwtRevocationRegistry;
+
+  @Mock
+  private UserDetailsCache userDetailsCache;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private UserDeletionWorker classUnderTest;
+
+  private UserDeletion failing;
+
+  private UserDeletion next;
+
+  /**
+   * Queues a job whose purge fails, then another one, before each test.
+   */
+  @BeforeEach
+  public void init() {
+    meterRegistry = new SimpleMeterRegistry();
+    classUnderTest = new UserDeletionWorker(userDeletionRepository, jdbcTemplate, sessionCache, jwtRevocationRegistry,
+        userDetailsCache, transactionManager, meterRegistry, 100, MAX_ATTEMPTS);
+
+    failing = job(1L);
+    next = job(2L);
+    when(userDeletionRepository.findTop100ByStatusAndIdGreaterThanOrderByIdAsc(UserDeletion.Status.PENDING, 0L))
+        .thenReturn(Arrays.asList(failing, next));
+    when(jdbcTemplate.queryForList(anyString(), eq(Long.class), eq(failing.getUserId()), anyInt()))
+        .thenThrow(new QueryTimeoutException("timeout"));
+    when(jdbcTemplate.queryForList(anyString(), eq(Long.class), eq(next.getUserId()), anyInt()))
+        .thenReturn(Collections.emptyList());
+  }
+
+  /**
+   * Tests that a failing job is counted as failed once and left pending,
+   * without holding back the jobs queued after it.
+   */
+  @Test
+  public void purgePending_shouldGoOnAfterAFailingJob() {
+    UserDeletion stored = job(1L);
+    when(userDeletionRepository.findById(1L)).thenReturn(Optional.of(stored));
+
+    classUnderTest.purgePending();
+
+    assertThat(stored.getAttempts()).isEqualTo(1);
+    assertThat(stored.getStatus()).isEqualTo(UserDeletion.Status.PENDING);
+    assertThat(next.getStatus()).isEqualTo(UserDeletion.Status.DONE);
+    verify(jdbcTemplate).update(anyString(), eq(next.getUserId()));
+  }
+
+  /**
+   * Tests that a job failing for the last allowed time is marked as failed.
+   */
+  @Test
+  public void purgePending_shouldGiveUpAfterMaxAttempts() {
+    UserDeletion stored = job(1L).setAttempts(MAX_ATTEMPTS - 1);
+    when(userDeletionRepository.findById(1L)).thenReturn(Optional.of(stored));
+
+    classUnderTest.purgePending();
+
+    assertThat(stored.getAttempts()).isEqualTo(MAX_ATTEMPTS);
+    assertThat(stored.getStatus()).isEqualTo(UserDeletion.Status.FAILED);
+    assertThat(meterRegistry.get("users.deletion.failed").counter().count()).isEqualTo(1);
+  }
+
+  private static UserDeletion job(Long id) {
+    return UserDeletion.builder().id(id).userId(id * 10).status(UserDeletion.Status.PENDING).build();
+  }
+}
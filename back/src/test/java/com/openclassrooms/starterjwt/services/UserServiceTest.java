@@ -1,11 +1,19 @@
 package com.openclassrooms.starterjwt.services;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.BDDMockito.willDoNothing;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -14,9 +22,18 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import com.openclassrooms.starterjwt.exception.BadRequestException;
+import com.openclassrooms.starterjwt.exception.NotFoundException;
 import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.models.UserDeletion;
+import com.openclassrooms.starterjwt.repository.UserDeletionRepository;
 import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.security.jwt.JwtRevocationRegistry;
+import com.openclassrooms.starterjwt.security.services.UserDetailsCache;
 
 /**
  * Class that tests {@link UserService}.
@@ -27,6 +44,21 @@ public class UserServiceTest {
   @Mock
   UserRepository userRepository;
 
+  @Mock
+  UserDeletionRepository userDeletionRepository;
+
+  @Mock
+  JwtRevocationRegistry jwtRevocationRegistry;
+
+  @Mock
+  UserDetailsCache userDetailsCache;
+
+  @Mock
+  JdbcTemplate jdbcTemplate;
+
+  @Mock
+  PlatformTransactionManager transactionManager;
+
   @InjectMocks
   UserService classUnderTest;
 
@@ -43,16 +75,46 @@ public class UserServiceTest {
   }
 
   /**
-   * Tests that delete method uses userRepository.deleteById().
+   * Tests that delete method marks the user as deleted and queues its purge.
    */
   @Test
-  public void delete_shouldUseRepository() {
+  public void delete_shouldMarkUserAndQueuePurge() {
+    when(userRepository.markDeleted(eq(user.getId()), any())).thenReturn(1);
+    when(userDeletionRepository.save(any())).thenAnswer(invocation -> invocation.<UserDeletion>getArgument(0).setId(7L));
+
+    UserDeletion deletion = classUnderTest.delete(user.getId());
 
-    willDoNothing().given(userRepository).deleteById(user.getId());
+    assertThat(deletion.getId()).isEqualTo(7L);
+    assertThat(deletion.getUserId()).isEqualTo(user.getId());
+    assertThat(deletion.getStatus()).isEqualTo(UserDeletion.Status.PENDING);
+    verify(userRepository, never()).deleteById(any());
+  }
+
+  /**
+   * Tests that delete method revokes the tokens and evicts the cached principal
+   * of the deleted user right away.
+   */
+  @Test
+  public void delete_shouldRevokeUserTokensAndEvictPrincipal() {
+    when(userRepository.markDeleted(eq(user.getId()), any())).thenReturn(1);
 
     classUnderTest.delete(user.getId());
 
-    verify(userRepository, times(1)).deleteById(user.getId());
+    verify(jwtRevocationRegistry, times(1)).revokeDeletedUser(user.getId());
+    verify(userDetailsCache, times(1)).evictUser(user.getId());
+  }
+
+  /**
+   * Tests that delete method throws a NotFoundException, and queues nothing,
+   * when the user doesn't exist or is already deleted.
+   */
+  @Test
+  public void delete_shouldThrowNotFound_whenUserAlreadyDeleted() {
+    when(userRepository.markDeleted(eq(user.getId()), any())).thenReturn(0);
+
+    assertThrows(NotFoundException.class, () -> classUnderTest.delete(user.getId()));
+    verify(userDeletionRepository, never()).save(any());
+    verify(jwtRevocationRegistry, never()).revokeDeletedUser(any());
   }
 
   /**
@@ -66,4 +128,54 @@ public class UserServiceTest {
 
     assertThat(existingUser).isNotNull();
   }
+
+  /**
+   * Tests that createAll method only inserts the users whose email is not taken
+   * yet, and reports which ones have been created.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void createAll_shouldSkipTakenEmails() {
+    User other = User.builder().email("janeDoe@live.fr").lastName("Doe").firstName("Jane").password("pwd")
+        .admin(false).build();
+    when(userRepository.findExistingEmails(any())).thenReturn(Collections.singleton(user.getEmail()));
+
+    List<Boolean> created = classUnderTest.createAll(Arrays.asList(user, other));
+
+    assertThat(created).containsExactly(false, true);
+    verify(jdbcTemplate, times(1)).batchUpdate(anyString(), eq(Collections.singletonList(other)), anyInt(),
+        any(ParameterizedPreparedStatementSetter.class));
+    verify(userDetailsCache, times(1)).evict(other.getEmail());
+    verify(userDetailsCache, never()).evict(user.getEmail());
+  }
+
+  /**
+   * Tests that findAllById method loads the users with a single query and
+   * returns them in the order of the given ids.
+   */
+  @Test
+  public void findAllById_shouldReturnUsersInOrder() {
+    User other = User.builder().id(2L).email("janeDoe@live.fr").lastName("Doe").firstName("Jane").password("pwd")
+        .admin(false).build();
+    when(userRepository.findAllById(any())).thenReturn(Arrays.asList(user, other));
+
+    List<User> users = classUnderTest.findAllById(Arrays.asList(2L, 1L, 2L));
+
+    assertThat(users).containsExactly(other, user);
+    verify(userRepository, times(1)).findAllById(any());
+  }
+
+  /**
+   * Tests that findAllById method throws a BadRequestException naming the ids
+   * that don't match any user.
+   */
+  @Test
+  public void findAllById_shouldThrow_whenSomeUsersDontExist() {
+    when(userRepository.findAllById(any())).thenReturn(Collections.singletonList(user));
+
+    BadRequestException exception = assertThrows(BadRequestException.class,
+        () -> classUnderTest.findAllById(Arrays.asList(1L, 3L)));
+
+    assertThat(exception.getMessage()).contains("[3]");
+  }
 }
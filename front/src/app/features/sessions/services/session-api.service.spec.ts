@@ -65,6 +65,25 @@ describe('SessionsService', () => {
       req.flush(mockedSessions);
     });
 
+    it('should follow the next cursor until the last page', (done) => {
+      service.all().subscribe({
+        next: (sessions: Session[]) => {
+          expect(sessions).toEqual(mockedSessions);
+          done();
+        },
+        error: (err: any) => {
+          fail(`Unexpected error: ${err}`);
+        },
+      });
+
+      httpMock
+        .expectOne('api/session')
+        .flush([mockedSessions[0]], { headers: { 'X-Next-Cursor': '1000_1' } });
+      const req = httpMock.expectOne('api/session?cursor=1000_1');
+      expect(req.request.method).toBe('GET');
+      req.flush([mockedSessions[1]]);
+    });
+
     it('should retrieve a session via GET', (done) => {
       service.detail('1').subscribe({
         next: (session: Session) => {
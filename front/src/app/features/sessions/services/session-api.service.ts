@@ -1,6 +1,7 @@
-import { HttpClient } from '@angular/common/http';
+import { HttpClient, HttpParams, HttpResponse } from '@angular/common/http';
 import { Injectable } from '@angular/core';
-import { Observable } from 'rxjs';
+import { EMPTY, Observable } from 'rxjs';
+import { expand, reduce } from 'rxjs/operators';
 import { Session } from '../interfaces/session.interface';
 
 @Injectable({
@@ -10,11 +11,23 @@ export class SessionApiService {
 
   private pathService = 'api/session';
 
+  private nextCursorHeader = 'X-Next-Cursor';
+
   constructor(private httpClient: HttpClient) {
   }
 
+  /**
+   * The API returns the sessions a page at a time: follows the cursor of each
+   * page until the last one, and emits all the sessions at once.
+   */
   public all(): Observable<Session[]> {
-    return this.httpClient.get<Session[]>(this.pathService);
+    return this.page(null).pipe(
+      expand((response) => {
+        const cursor = response.headers.get(this.nextCursorHeader);
+        return cursor ? this.page(cursor) : EMPTY;
+      }),
+      reduce((sessions: Session[], response) => sessions.concat(response.body ?? []), [])
+    );
   }
 
   public detail(id: string): Observable<Session> {
@@ -41,4 +54,9 @@ export class SessionApiService {
     return this.httpClient.delete<void>(`${this.pathService}/${id}/participate/${userId}`);
   }
 
+  private page(cursor: string | null): Observable<HttpResponse<Session[]>> {
+    const params = cursor ? new HttpParams().set('cursor', cursor) : undefined;
+    return this.httpClient.get<Session[]>(this.pathService, { observe: 'response', params });
+  }
+
 }